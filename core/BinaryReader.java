@@ -18,10 +18,15 @@ package core;
  */
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
 
 /**
  * 文件二进制读取类 <br>
- * 此类继承{@link RandomAccessFile}，添加一系列以<b>LE</b>结尾的函数将读取的字节以<b>Little-Endian</b>格式返回
+ * 此类继承{@link RandomAccessFile}，添加一系列以<b>LE</b>结尾的函数将读取的字节以<b>Little-Endian</b>格式返回<br>
+ * 可使用内存映射模式({@link #BinaryReader(File, boolean)})打开，此时{@link #seek(long)}只移动位置，不产生系统调用
  *
  * @author 云中双月
  */
@@ -29,10 +34,41 @@ public final class BinaryReader {
 	BufferedInputStream bis;
 	RandomAccessFile raf;
 	FileInputStream fis;
+	/* 内存映射模式下的文件数据，以Little-Endian方式读取 */
+	ByteBuffer map;
 	public BinaryReader(File file) throws IOException {
+		this(file, false);
+	}
+
+	/**
+	 * 打开文件读取对象
+	 *
+	 * @param file
+	 *            要读取的文件
+	 * @param mapped
+	 *            是否使用内存映射({@link FileChannel#map})方式读取<br>
+	 *            文件大于2GB时无法映射，此时退回到流方式
+	 * @throws IOException
+	 *             文件打开或映射失败
+	 */
+	public BinaryReader(File file, boolean mapped) throws IOException {
 		raf = new RandomAccessFile(file, "r");
-		fis = new FileInputStream(raf.getFD());
-		bis = new BufferedInputStream(fis);
+		if (mapped && raf.length() <= Integer.MAX_VALUE) {
+			map = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+			map.order(ByteOrder.LITTLE_ENDIAN);
+		} else {
+			fis = new FileInputStream(raf.getFD());
+			bis = new BufferedInputStream(fis);
+		}
+	}
+
+	/**
+	 * 当前对象是否以内存映射方式读取文件
+	 *
+	 * @return true表示使用内存映射 false表示使用流
+	 */
+	public boolean isMapped() {
+		return map != null;
 	}
 
 	/**
@@ -44,6 +80,10 @@ public final class BinaryReader {
 	 *             文件已达到末尾
 	 */
 	public final short readShortLE() throws IOException {
+		if (map != null) {
+			ensureRemaining(2);
+			return map.getShort();
+		}
 		int ch1 = this.read();
 		int ch2 = this.read();
 		return (short) ((ch2 << 8) + (ch1 << 0));
@@ -58,6 +98,10 @@ public final class BinaryReader {
 	 *             文件已达到末尾
 	 */
 	public final int readUnsignedShortLE() throws IOException {
+		if (map != null) {
+			ensureRemaining(2);
+			return map.getShort() & 0xFFFF;
+		}
 		int ch1 = this.read();
 		int ch2 = this.read();
 		return (ch2 << 8) + (ch1 << 0);
@@ -72,6 +116,10 @@ public final class BinaryReader {
 	 *             文件已达到末尾
 	 */
 	public final char readCharLE() throws IOException {
+		if (map != null) {
+			ensureRemaining(2);
+			return map.getChar();
+		}
 		int ch1 = this.read();
 		int ch2 = this.read();
 		return (char) ((ch2 << 8) + (ch1 << 0));
@@ -86,6 +134,10 @@ public final class BinaryReader {
 	 *             文件已达到末尾
 	 */
 	public final int readIntLE() throws IOException {
+		if (map != null) {
+			ensureRemaining(4);
+			return map.getInt();
+		}
 		int ch1 = this.read();
 		int ch2 = this.read();
 		int ch3 = this.read();
@@ -114,7 +166,66 @@ public final class BinaryReader {
 	 *             文件已达到末尾
 	 */
 	public final long readLongLE() throws IOException {
-		return ((long) (readIntLE()) & 0xFFFFFFFFL) + (readIntLE() << 32);
+		if (map != null) {
+			ensureRemaining(8);
+			return map.getLong();
+		}
+		return ((long) (readIntLE()) & 0xFFFFFFFFL) + ((long) readIntLE() << 32);
+	}
+
+	/**
+	 * 从流中批量读取四字节整形 <br>
+	 * 流位置向前推进len*4个字节
+	 *
+	 * @param dst
+	 *            存放数据的数组，每个整形以Little-Endian格式解析
+	 * @param off
+	 *            数据在数组中的起始位置
+	 * @param len
+	 *            要读取的整形个数
+	 * @throws IOException
+	 *             文件剩余数据不足
+	 */
+	public final void readIntsLE(int[] dst, int off, int len) throws IOException {
+		intView(len).get(dst, off, len);
+	}
+
+	/**
+	 * 从流中批量读取四字节整形并以无符号方式返回 <br>
+	 * 流位置向前推进len*4个字节
+	 *
+	 * @param dst
+	 *            存放数据的数组，每个整形以Little-Endian格式解析
+	 * @param off
+	 *            数据在数组中的起始位置
+	 * @param len
+	 *            要读取的整形个数
+	 * @throws IOException
+	 *             文件剩余数据不足
+	 */
+	public final void readUnsignedIntsLE(long[] dst, int off, int len) throws IOException {
+		IntBuffer ib = intView(len);
+		for (int i = 0; i < len; ++i)
+			dst[off + i] = ib.get(i) & 0xFFFFFFFFL;
+	}
+
+	/* 将接下来的len个整形作为Little-Endian的IntBuffer返回，并推进流位置 */
+	private IntBuffer intView(int len) throws IOException {
+		if (map != null) {
+			ensureRemaining(len * 4);
+			IntBuffer ib = map.asIntBuffer();
+			map.position(map.position() + len * 4);
+			return ib;
+		}
+		byte[] bytes = new byte[len * 4];
+		int read = 0;
+		while (read < bytes.length) {
+			int n = bis.read(bytes, read, bytes.length - read);
+			if (n < 0)
+				throw new EOFException();
+			read += n;
+		}
+		return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
 	}
 
 	/**
@@ -142,30 +253,105 @@ public final class BinaryReader {
 	}
 
 	public int read() throws IOException {
+		if (map != null)
+			return map.hasRemaining() ? map.get() & 0xFF : -1;
 		return bis.read();
 	}
 
 	public void seek(long i) throws IOException {
+		if (map != null) {
+			map.position((int) Math.min(i, map.limit()));
+			return;
+		}
 		raf.seek(i);
 		bis = new BufferedInputStream(fis);
 	}
 
 	public int read(byte[] bytes) throws IOException {
+		if (map != null) {
+			if (bytes.length == 0)
+				return 0;
+			int len = Math.min(bytes.length, map.remaining());
+			if (len == 0)
+				return -1;
+			map.get(bytes, 0, len);
+			return len;
+		}
 		return bis.read(bytes);
 	}
 
-	public void close() {
+	/**
+	 * 从文件指定位置读取数据，直到填满给定数组 <br>
+	 * 不使用也不改变当前流位置，因此可以由多个线程同时调用
+	 *
+	 * @param position
+	 *            文件中的起始位置
+	 * @param bytes
+	 *            存放数据的数组
+	 * @throws IOException
+	 *             文件剩余数据不足以填满数组
+	 */
+	public void readFully(long position, byte[] bytes) throws IOException {
+		readFully(position, bytes, 0, bytes.length);
+	}
+
+	/**
+	 * 从文件指定位置读取指定长度的数据 <br>
+	 * 不使用也不改变当前流位置，因此可以由多个线程同时调用
+	 *
+	 * @param position
+	 *            文件中的起始位置
+	 * @param bytes
+	 *            存放数据的数组
+	 * @param off
+	 *            数据在数组中的起始位置
+	 * @param len
+	 *            要读取的字节数
+	 * @throws IOException
+	 *             文件剩余数据不足指定长度
+	 */
+	public void readFully(long position, byte[] bytes, int off, int len) throws IOException {
+		if (position < 0 || position + len > length())
+			throw new EOFException();
+		if (map != null) {
+			ByteBuffer dup = map.duplicate();
+			dup.position((int) position);
+			dup.get(bytes, off, len);
+			return;
+		}
+		FileChannel channel = raf.getChannel();
+		ByteBuffer bb = ByteBuffer.wrap(bytes, off, len);
+		while (bb.hasRemaining()) {
+			if (channel.read(bb, position + bb.position() - off) < 0)
+				throw new EOFException();
+		}
+	}
+
+	public void close() throws IOException {
+		// 映射的内存在对象被回收时释放，关闭通道不影响已映射数据
+		raf.close();
 	}
 
 	public long length() throws IOException {
+		if (map != null)
+			return map.capacity();
 		return raf.length();
 	}
 
 	public void skipBytes(int i) throws IOException {
+		if (map != null) {
+			map.position(map.position() + Math.min(i, map.remaining()));
+			return;
+		}
 		bis.skip(i);
 	}
 
 	public byte readByte() throws IOException {
 		return (byte)read();
 	}
+
+	private void ensureRemaining(int count) throws EOFException {
+		if (map.remaining() < count)
+			throw new EOFException();
+	}
 }
@@ -16,22 +16,103 @@
  */
 package core;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.Flushable;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 
 /**
  * 文件二进制写入类
  * <br>
- * 此类继承{@link RandomAccessFile}，添加一系列以<b>LE</b>结尾的函数将读取的字节以<b>Little-Endian</b>格式写入
+ * 添加一系列以<b>LE</b>结尾的函数将数据以<b>Little-Endian</b>格式写入<br>
+ * 数据先写入内存缓冲区，缓冲区满或调用{@link #flush()}/{@link #close()}时通过{@link FileChannel}整块写入文件
  *
  * @author 云中双月
  */
-public class BinaryWriter extends RandomAccessFile {
+public class BinaryWriter implements Closeable, Flushable {
+
+	/* 写入缓冲区大小 */
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private RandomAccessFile raf;
+	private FileChannel channel;
+	private ByteBuffer buffer;
 
 	public BinaryWriter(File file, String mode) throws FileNotFoundException {
-		super(file, mode);
+		raf = new RandomAccessFile(file, mode);
+		channel = raf.getChannel();
+		buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * 写入一个字节
+	 * 
+	 * @param b
+	 * 		要写入的字节，只取低8位
+	 * @throws IOException
+	 * 		写入过程中发生的I/O异常
+	 */
+	public final void write(int b) throws IOException {
+		ensureRemaining(1);
+		buffer.put((byte) b);
+	}
+
+	/**
+	 * 写入一个字节
+	 * 
+	 * @param b
+	 * 		要写入的字节，只取低8位
+	 * @throws IOException
+	 * 		写入过程中发生的I/O异常
+	 */
+	public final void writeByte(int b) throws IOException {
+		write(b);
+	}
+
+	/**
+	 * 写入整个字节数组
+	 * 
+	 * @param b
+	 * 		要写入的数据
+	 * @throws IOException
+	 * 		写入过程中发生的I/O异常
+	 */
+	public final void write(byte[] b) throws IOException {
+		write(b, 0, b.length);
+	}
+
+	/**
+	 * 写入字节数组的一部分<br>
+	 * 大于缓冲区的数据不经过缓冲区直接写入文件
+	 * 
+	 * @param b
+	 * 		要写入的数据
+	 * @param off
+	 * 		数据在数组中的起始位置
+	 * @param len
+	 * 		要写入的字节数
+	 * @throws IOException
+	 * 		写入过程中发生的I/O异常
+	 */
+	public final void write(byte[] b, int off, int len) throws IOException {
+		if (len <= buffer.remaining()) {
+			buffer.put(b, off, len);
+			return;
+		}
+		flush();
+		if (len < buffer.capacity()) {
+			buffer.put(b, off, len);
+			return;
+		}
+		ByteBuffer bb = ByteBuffer.wrap(b, off, len);
+		while (bb.hasRemaining())
+			channel.write(bb);
 	}
 
 	/**
@@ -43,8 +124,8 @@ public class BinaryWriter extends RandomAccessFile {
 	 * 		写入过程中发生的I/O异常
 	 */
 	public final void writeShortLE(short v) throws IOException {
-		write((v >>> 0) & 0xFF);
-        write((v >>> 8) & 0xFF);
+		ensureRemaining(2);
+		buffer.putShort(v);
 	}
 	
 	/**
@@ -56,8 +137,8 @@ public class BinaryWriter extends RandomAccessFile {
 	 * 		写入过程中发生的I/O异常
 	 */
 	public final void writeUnsignedShortLE(int v) throws IOException {
-		write((v >>> 0) & 0xFF);
-        write((v >>> 8) & 0xFF);
+		ensureRemaining(2);
+		buffer.putShort((short) v);
 	}
 
 	/**
@@ -69,8 +150,8 @@ public class BinaryWriter extends RandomAccessFile {
 	 * 		写入过程中发生的I/O异常
 	 */
 	public final void writeCharLE(short v) throws IOException {
-		write((v >>> 0) & 0xFF);
-        write((v >>> 8) & 0xFF);
+		ensureRemaining(2);
+		buffer.putShort(v);
 	}
 	
 	/**
@@ -82,11 +163,9 @@ public class BinaryWriter extends RandomAccessFile {
 	 * 		写入过程中发生的I/O异常
 	 */
 	public final void writeIntLE(int v) throws IOException {
-        write((v >>>  0) & 0xFF);
-        write((v >>>  8) & 0xFF);
-        write((v >>> 16) & 0xFF);
-        write((v >>> 24) & 0xFF);
-    }
+		ensureRemaining(4);
+		buffer.putInt(v);
+	}
 	
 	/**
 	 * 以低位在前(Little-Endian)的方式写入八个字节数据(一个long类型数据)
@@ -97,15 +176,9 @@ public class BinaryWriter extends RandomAccessFile {
 	 * 		写入过程中发生的I/O异常
 	 */
 	public final void writeLongLE(long v) throws IOException {
-        write((int)(v >>>  0) & 0xFF);
-        write((int)(v >>>  8) & 0xFF);
-        write((int)(v >>> 16) & 0xFF);
-        write((int)(v >>> 24) & 0xFF);
-        write((int)(v >>> 32) & 0xFF);
-        write((int)(v >>> 40) & 0xFF);
-        write((int)(v >>> 48) & 0xFF);
-        write((int)(v >>> 56) & 0xFF);
-    }
+		ensureRemaining(8);
+		buffer.putLong(v);
+	}
 	
 	/**
 	 * 以低位在前(Little-Endian)的方式写入四个字节数据(一个float类型数据)
@@ -130,4 +203,36 @@ public class BinaryWriter extends RandomAccessFile {
 	public final void writeDoubleLE(double v) throws IOException {
         writeLongLE(Double.doubleToLongBits(v));
     }
+
+	/**
+	 * 将缓冲区中的数据写入文件
+	 * 
+	 * @throws IOException
+	 * 		写入过程中发生的I/O异常
+	 */
+	public final void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
+	}
+
+	/**
+	 * 写入缓冲区中剩余数据并关闭文件
+	 * 
+	 * @throws IOException
+	 * 		写入过程中发生的I/O异常
+	 */
+	public void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			raf.close();
+		}
+	}
+
+	private void ensureRemaining(int count) throws IOException {
+		if (buffer.remaining() < count)
+			flush();
+	}
 }
@@ -0,0 +1,383 @@
+/*
+ * Copyright 2017 JOOTNET Project
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Support: https://github.com/jootnet/mir2.core
+ */
+package core.export;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import core.SDK;
+import core.image.ImageLibraries;
+import core.image.ImageLibrary;
+
+/**
+ * 批量导出多个图片库<br>
+ * 所有图片库共用同一个{@link ExportPipeline}，同时打开若干个图片库，每轮从每个图片库依次提交一小段图片，
+ * 单个很大的图片库不会阻塞其他图片库，各图片库的导出交替进行<br>
+ * 图片库在后台线程中提前打开，提交线程不因解析索引而停顿；一个图片库的所有图片处理结束后立即关闭<br>
+ * 每个图片库输出到根目录下以图片库名称(不含后缀)命名的目录<br>
+ * 默认在每个输出目录中维护导出清单(见{@link ExportManifest})，再次导出时跳过未修改的图片库和已导出的图片，
+ * 中断的图片库从第一张未导出的图片继续
+ *
+ * @author 云中双月
+ */
+public final class BatchExporter {
+
+	/* 每轮从一个图片库提交的图片数量 */
+	private static final int SLICE = 32;
+
+	private final ExportPipeline pipeline;
+	private final File outputRoot;
+	private final String prefix;
+	/* 同时导出的图片库数量 */
+	private final int window;
+	/* 是否使用导出清单 */
+	private final boolean resume;
+	/* 清单显示未修改、没有打开的图片库数量 */
+	private int unchangedCount;
+	/* 清单显示已导出、没有再次导出的图片数量 */
+	private final AtomicLong resumedCount = new AtomicLong();
+
+	/* 正在打开的一个图片库 */
+	private static final class Opening {
+		final File file;
+		final ExportManifest manifest;
+		final Future<ImageLibrary> library;
+
+		Opening(File file, ExportManifest manifest, Future<ImageLibrary> library) {
+			this.file = file;
+			this.manifest = manifest;
+			this.library = library;
+		}
+	}
+
+	/* 正在导出的一个图片库 */
+	private final class Source implements ExportPipeline.Listener {
+		final ImageLibrary library;
+		final File directory;
+		final int count;
+		ExportManifest manifest;
+		int next;
+		/* 已提交但未结束的图片数量，加上提交未完成时的1 */
+		final AtomicInteger outstanding = new AtomicInteger(1);
+
+		Source(File file, ImageLibrary library, ExportManifest manifest) {
+			this.library = library;
+			this.directory = new File(outputRoot, baseName(file));
+			this.count = library.count();
+			directory.mkdirs();
+			if (manifest != null) {
+				try {
+					manifest.begin(count);
+					this.manifest = manifest;
+				} catch (IOException e) {
+					// 清单无法写入时完整导出
+					e.printStackTrace();
+					close(manifest);
+				}
+			}
+		}
+
+		/* 提交一段图片，返回是否已全部提交 */
+		boolean submit() {
+			int end = Math.min(count, next + SLICE);
+			for (; next < end; ++next) {
+				File target = target(directory, next);
+				// 已导出的图片跳过，相当于从第一张未导出的图片继续
+				if (manifest != null && manifest.isDone(next, target)) {
+					resumedCount.incrementAndGet();
+					continue;
+				}
+				outstanding.incrementAndGet();
+				pipeline.export(library, next, target, this);
+			}
+			if (next < count)
+				return false;
+			release();
+			return true;
+		}
+
+		public boolean beforeWrite(int index, File target, byte[] data) {
+			return manifest == null || !manifest.isUnchanged(index, target, data);
+		}
+
+		public void finished(int index, byte[] data, boolean empty) {
+			// 只记录导出成功的图片和空图片，失败的图片不记录，再次导出时重试
+			if (manifest != null && (data != null || empty)) {
+				try {
+					manifest.record(index, data);
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+			release();
+		}
+
+		/* 所有图片处理结束后关闭图片库和清单 */
+		void release() {
+			if (outstanding.decrementAndGet() != 0)
+				return;
+			try {
+				library.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			if (manifest != null)
+				close(manifest);
+		}
+	}
+
+	/**
+	 * 创建批量导出器，同时导出的图片库数量为4，使用导出清单
+	 *
+	 * @param pipeline
+	 * 		导出流水线，由调用方关闭
+	 * @param outputRoot
+	 * 		输出根目录
+	 * @param prefix
+	 * 		文件名前缀
+	 */
+	public BatchExporter(ExportPipeline pipeline, File outputRoot, String prefix) {
+		this(pipeline, outputRoot, prefix, 4, true);
+	}
+
+	/**
+	 * 创建批量导出器
+	 *
+	 * @param pipeline
+	 * 		导出流水线，由调用方关闭
+	 * @param outputRoot
+	 * 		输出根目录
+	 * @param prefix
+	 * 		文件名前缀
+	 * @param window
+	 * 		同时导出的图片库数量
+	 * @param resume
+	 * 		是否使用导出清单跳过已导出的图片，false时总是完整导出并且不写入清单
+	 */
+	public BatchExporter(ExportPipeline pipeline, File outputRoot, String prefix, int window, boolean resume) {
+		if (window < 1)
+			throw new IllegalArgumentException("window must be positive !!!");
+		this.pipeline = pipeline;
+		this.outputRoot = outputRoot;
+		this.prefix = prefix;
+		this.window = window;
+		this.resume = resume;
+	}
+
+	/**
+	 * 查找图片库文件<br>
+	 * 给定目录时返回目录下所有图片库；否则将最后一级作为通配符(如Data/Hum*.wil)匹配其所在目录中的文件名，不区分大小写<br>
+	 * 只接受wil、wzl、wis后缀，索引文件(wix、wzx等)不单独返回；同名的多个图片库按{@link ImageLibraries#open(String)}
+	 * 未给定后缀时的顺序只保留一个(wzl优先，其次wis、wil)
+	 *
+	 * @param pathOrGlob
+	 * 		目录或带通配符的路径
+	 * @return 按文件名排序的图片库文件
+	 */
+	public static List<File> find(String pathOrGlob) {
+		File path = new File(pathOrGlob);
+		File directory = path;
+		PathMatcher matcher = null;
+		if (!path.isDirectory()) {
+			directory = path.getAbsoluteFile().getParentFile();
+			matcher = FileSystems.getDefault().getPathMatcher("glob:" + path.getName().toLowerCase());
+		}
+		File[] files = directory == null ? null : directory.listFiles();
+		if (files == null)
+			return new ArrayList<File>();
+		Arrays.sort(files);
+		Map<String, File> found = new LinkedHashMap<String, File>();
+		for (File file : files) {
+			if (!file.isFile())
+				continue;
+			if (matcher != null && !matcher.matches(Paths.get(file.getName().toLowerCase())))
+				continue;
+			int rank = rank(SDK.getFileExtension(file.getName()));
+			if (rank < 0)
+				continue;
+			String key = baseName(file).toLowerCase();
+			File other = found.get(key);
+			if (other == null || rank < rank(SDK.getFileExtension(other.getName())))
+				found.put(key, file);
+		}
+		return new ArrayList<File>(found.values());
+	}
+
+	/* 同名图片库的优先级，越小越优先，不是图片库时返回-1 */
+	private static int rank(String ext) {
+		if (ext.equals("WZL"))
+			return 0;
+		if (ext.equals("WIS"))
+			return 1;
+		if (ext.equals("WIL"))
+			return 2;
+		return -1;
+	}
+
+	private static void close(ExportManifest manifest) {
+		try {
+			manifest.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/* 关闭已打开但未使用的图片库 */
+	private static void close(Future<ImageLibrary> future) {
+		future.cancel(true);
+		try {
+			ImageLibrary library = future.get();
+			if (library != null)
+				library.close();
+		} catch (Exception e) {
+			// 未打开或打开失败，没有需要关闭的对象
+		}
+	}
+
+	private File target(File directory, int index) {
+		return new File(directory, prefix + index + "." + pipeline.extension());
+	}
+
+	/* 清单中的所有图片是否都已导出且输出文件存在 */
+	private boolean isExported(ExportManifest manifest, File directory) {
+		if (!manifest.isComplete())
+			return false;
+		for (int index = 0, count = manifest.count(); index < count; ++index) {
+			if (!manifest.isDone(index, target(directory, index)))
+				return false;
+		}
+		return true;
+	}
+
+	private static String baseName(File file) {
+		String name = file.getName();
+		int dot = name.lastIndexOf('.');
+		return dot > 0 ? name.substring(0, dot) : name;
+	}
+
+	/**
+	 * 导出给定的所有图片库，所有图片提交完成后返回<br>
+	 * 调用{@link ExportPipeline#close()}等待处理结束
+	 *
+	 * @param files
+	 * 		图片库文件
+	 * @return 成功打开的图片库数量
+	 * @throws InterruptedException
+	 * 		等待图片库打开时被中断
+	 */
+	public int export(List<File> files) throws InterruptedException {
+		ExecutorService opener = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "export-open");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		int opened = 0;
+		// 比同时导出的数量多打开一个，当前图片库提交完成时下一个已经就绪
+		Deque<Opening> opening = new ArrayDeque<Opening>();
+		List<Source> active = new ArrayList<Source>();
+		int nextFile = 0;
+		try {
+			while (true) {
+				while (nextFile < files.size() && opening.size() + active.size() <= window) {
+					final File file = files.get(nextFile++);
+					ExportManifest manifest = null;
+					if (resume) {
+						File directory = new File(outputRoot, baseName(file));
+						manifest = ExportManifest.load(directory, file);
+						if (isExported(manifest, directory)) {
+							unchangedCount++;
+							continue;
+						}
+					}
+					opening.add(new Opening(file, manifest, opener.submit(new Callable<ImageLibrary>() {
+						public ImageLibrary call() {
+							return ImageLibraries.open(file.getPath());
+						}
+					})));
+				}
+				while (active.size() < window && !opening.isEmpty()) {
+					Opening next = opening.poll();
+					ImageLibrary library = null;
+					try {
+						library = next.library.get();
+					} catch (ExecutionException e) {
+						e.getCause().printStackTrace();
+					}
+					if (library == null)
+						continue;
+					opened++;
+					active.add(new Source(next.file, library, next.manifest));
+				}
+				if (active.isEmpty())
+					break;
+				// 轮流从每个图片库提交一段
+				for (int i = 0; i < active.size();) {
+					if (active.get(i).submit())
+						active.remove(i);
+					else
+						++i;
+				}
+			}
+		} finally {
+			opener.shutdownNow();
+			// 被中断时释放尚未提交完成的图片库
+			for (Source source : active)
+				source.release();
+			for (Opening next : opening)
+				close(next.library);
+		}
+		return opened;
+	}
+
+	/**
+	 * 获取因清单显示未修改且已全部导出而没有打开的图片库数量
+	 *
+	 * @return 图片库数量
+	 */
+	public int getUnchangedCount() {
+		return unchangedCount;
+	}
+
+	/**
+	 * 获取因清单显示已导出而跳过的图片数量
+	 *
+	 * @return 图片数量
+	 */
+	public long getResumedCount() {
+		return resumedCount.get();
+	}
+}
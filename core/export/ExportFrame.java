@@ -0,0 +1,105 @@
+/*
+ * Copyright 2017 JOOTNET Project
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * Support: https://github.com/jootnet/mir2.core
+ */
+package core.export;
+
+import core.image.ImageLibrary;
+
+/**
+ * 导出过程中的一张图片<br>
+ * 由解码阶段创建，依次经过编码和写入阶段
+ * 
+ * @author 云中双月
+ */
+public final class ExportFrame {
+
+	private final ImageLibrary library;
+	private final int index;
+	private final int width;
+	private final int height;
+	private final int colorBit;
+	private final int[] argb;
+	private final byte[] indices;
+
+	ExportFrame(ImageLibrary library, int index, int width, int height, int colorBit, int[] argb) {
+		this(library, index, width, height, colorBit, argb, null);
+	}
+
+	ExportFrame(ImageLibrary library, int index, int width, int height, int colorBit, int[] argb, byte[] indices) {
+		this.library = library;
+		this.index = index;
+		this.width = width;
+		this.height = height;
+		this.colorBit = colorBit;
+		this.argb = argb;
+		this.indices = indices;
+	}
+
+	/**
+	 * 获取图片所在图片库
+	 * 
+	 * @return 图片库
+	 */
+	public ImageLibrary getLibrary() {
+		return library;
+	}
+
+	/**
+	 * 获取图片索引
+	 * 
+	 * @return 图片在图片库中的索引
+	 */
+	public int getIndex() {
+		return index;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * 获取图片在图片库中的色深度
+	 * 
+	 * @return 8或16
+	 */
+	public int getColorBit() {
+		return colorBit;
+	}
+
+	/**
+	 * 获取ARGB像素数据<br>
+	 * 从图片左上角到右下角，黑色为透明色(0)，与{@link ImageLibrary#decodeInto(int, int[], int)}一致
+	 * 
+	 * @return 像素数组，图片以调色板索引提供时为null
+	 */
+	public int[] getARGB() {
+		return argb;
+	}
+
+	/**
+	 * 获取8位图片的调色板索引<br>
+	 * 从图片左上角到右下角，与{@link ImageLibrary#decodeIndexedInto(int, byte[], int)}一致
+	 * 
+	 * @return 索引数组，只有编码器{@link FrameEncoder#indexed()}且图片为8位时不为null
+	 */
+	public byte[] getIndices() {
+		return indices;
+	}
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright 2017 JOOTNET Project
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Support: https://github.com/jootnet/mir2.core
+ */
+package core.export;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.zip.CRC32;
+
+import core.SDK;
+
+/**
+ * 一个图片库导出结果的清单，存放在输出目录下的{@value #FILE_NAME}文件中<br>
+ * 文件头记录图片库(及其索引文件)的长度、修改时间和图片数量，之后每导出一张图片追加一条记录：索引、文件长度、CRC32；
+ * 空图片记录为长度0，导出失败的图片不记录，再次导出时重试<br>
+ * 记录在文件写入完成后才追加，中断时最多丢失正在写入的图片，文件末尾不完整的记录在下次打开时丢弃<br>
+ * 图片库未修改时已记录且输出文件长度一致的图片不再导出，全部图片都已导出的图片库不需要打开；
+ * 图片库修改后清单重新开始，但旧记录保留在内存中，重新编码的结果与旧记录及现有文件一致时不再重写文件
+ *
+ * @author 云中双月
+ */
+final class ExportManifest implements Closeable {
+
+	/** 清单文件名 */
+	static final String FILE_NAME = ".manifest";
+
+	/* MEXP */
+	private static final int MAGIC = 0x4d455850;
+	private static final int VERSION = 1;
+	/* magic、version、图片数量、保留，图片库和索引文件的长度与修改时间 */
+	private static final int HEADER_SIZE = 16 + 32;
+	/* 索引、长度、CRC32 */
+	private static final int RECORD_SIZE = 12;
+
+	private final File file;
+	/* 图片库和索引文件的长度与修改时间 */
+	private final long[] stamp;
+	/* 图片数量，清单无效时为-1 */
+	private int count = -1;
+	private BitSet done = new BitSet();
+	private int[] lengths = new int[0];
+	/* 图片库修改前的记录，读取后不再修改 */
+	private BitSet previousDone = new BitSet();
+	private int[] previousLengths = new int[0];
+	private int[] previousHashes = new int[0];
+	/* 文件中完整记录的数量 */
+	private int records;
+	private FileChannel channel;
+
+	private ExportManifest(File file, long[] stamp) {
+		this.file = file;
+		this.stamp = stamp;
+	}
+
+	/**
+	 * 读取输出目录中的清单<br>
+	 * 清单不存在或无法读取时返回空清单，与图片库不一致时返回空清单并保留旧记录
+	 *
+	 * @param directory
+	 * 		输出目录
+	 * @param library
+	 * 		图片库文件
+	 * @return 清单
+	 */
+	static ExportManifest load(File directory, File library) {
+		File index = indexFile(library);
+		long[] stamp = { library.length(), library.lastModified(), index == null ? 0 : index.length(),
+				index == null ? 0 : index.lastModified() };
+		ExportManifest manifest = new ExportManifest(new File(directory, FILE_NAME), stamp);
+		if (manifest.file.isFile()) {
+			try {
+				manifest.read();
+			} catch (IOException e) {
+				e.printStackTrace();
+				manifest.reset();
+			}
+		}
+		return manifest;
+	}
+
+	/* WIL和WZL的索引文件，与图片库的查找方式一致 */
+	private static File indexFile(File library) {
+		String ext = SDK.getFileExtension(library.getName());
+		if (ext.equals("WIL"))
+			return new File(SDK.changeFileExtension(library.getPath(), "wix"));
+		if (ext.equals("WZL"))
+			return new File(SDK.changeFileExtension(library.getPath(), "wzx"));
+		return null;
+	}
+
+	private void read() throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION)
+				return;
+			int n = in.readInt();
+			if (n < 0)
+				return;
+			in.readInt();
+			boolean same = true;
+			for (int i = 0; i < stamp.length; ++i)
+				same &= in.readLong() == stamp[i];
+			BitSet recorded = new BitSet(n);
+			int[] recordedLengths = new int[Math.max(n, 0)];
+			int[] recordedHashes = new int[Math.max(n, 0)];
+			int complete = 0;
+			try {
+				while (true) {
+					int index = in.readInt();
+					int length = in.readInt();
+					int hash = in.readInt();
+					complete++;
+					if (index < 0 || index >= n)
+						continue;
+					recorded.set(index);
+					recordedLengths[index] = length;
+					recordedHashes[index] = hash;
+				}
+			} catch (EOFException e) {
+				// 文件结束，末尾不完整的记录丢弃
+			}
+			if (same) {
+				count = n;
+				done = recorded;
+				lengths = recordedLengths;
+				records = complete;
+			} else {
+				previousDone = recorded;
+				previousLengths = recordedLengths;
+				previousHashes = recordedHashes;
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	private void reset() {
+		count = -1;
+		done = new BitSet();
+		records = 0;
+	}
+
+	/**
+	 * 图片库是否未修改且所有图片都有记录<br>
+	 * 不检查输出文件，需要时由调用方逐一调用{@link #isDone(int, File)}
+	 *
+	 * @return true表示所有图片都有记录
+	 */
+	synchronized boolean isComplete() {
+		return count >= 0 && done.cardinality() == count;
+	}
+
+	/**
+	 * 开始(或继续)导出，图片数量与清单不一致时清单重新开始
+	 *
+	 * @param count
+	 * 		图片库中的图片数量
+	 * @throws IOException
+	 * 		清单文件无法写入
+	 */
+	synchronized void begin(int count) throws IOException {
+		if (this.count != count) {
+			this.count = count;
+			done = new BitSet(count);
+			records = 0;
+		}
+		if (lengths.length < count)
+			lengths = Arrays.copyOf(lengths, count);
+		file.getParentFile().mkdirs();
+		channel = new RandomAccessFile(file, "rw").getChannel();
+		// 丢弃不完整的记录，文件头总是重写
+		channel.truncate(HEADER_SIZE + (long) records * RECORD_SIZE);
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putInt(MAGIC).putInt(VERSION).putInt(count).putInt(0);
+		for (int i = 0; i < stamp.length; ++i)
+			header.putLong(stamp[i]);
+		header.flip();
+		channel.write(header, 0);
+		channel.position(HEADER_SIZE + (long) records * RECORD_SIZE);
+	}
+
+	/**
+	 * 获取清单中的图片数量
+	 *
+	 * @return 图片数量，清单无效时为-1
+	 */
+	synchronized int count() {
+		return count;
+	}
+
+	/**
+	 * 图片是否已经导出<br>
+	 * 空图片只需有记录，其他图片还需要输出文件长度与记录一致
+	 *
+	 * @param index
+	 * 		图片索引
+	 * @param target
+	 * 		输出文件
+	 * @return true表示不需要再次导出
+	 */
+	synchronized boolean isDone(int index, File target) {
+		if (!done.get(index))
+			return false;
+		return lengths[index] == 0 || target.length() == lengths[index];
+	}
+
+	/**
+	 * 重新编码的结果是否与图片库修改前导出的文件相同
+	 *
+	 * @param index
+	 * 		图片索引
+	 * @param target
+	 * 		输出文件
+	 * @param data
+	 * 		文件数据
+	 * @return true表示不需要重写文件
+	 */
+	boolean isUnchanged(int index, File target, byte[] data) {
+		if (!previousDone.get(index) || previousLengths[index] != data.length || target.length() != data.length)
+			return false;
+		return previousHashes[index] == hash(data);
+	}
+
+	/**
+	 * 记录一张已导出的图片
+	 *
+	 * @param index
+	 * 		图片索引
+	 * @param data
+	 * 		文件数据，空图片为null
+	 * @throws IOException
+	 * 		清单文件无法写入
+	 */
+	void record(int index, byte[] data) throws IOException {
+		int length = data == null ? 0 : data.length;
+		int hash = data == null ? 0 : hash(data);
+		ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+		record.putInt(index).putInt(length).putInt(hash);
+		record.flip();
+		synchronized (this) {
+			while (record.hasRemaining())
+				channel.write(record);
+			records++;
+			done.set(index);
+			lengths[index] = length;
+		}
+	}
+
+	private static int hash(byte[] data) {
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, data.length);
+		return (int) crc.getValue();
+	}
+
+	public synchronized void close() throws IOException {
+		if (channel != null) {
+			channel.close();
+			channel = null;
+		}
+	}
+}
@@ -0,0 +1,342 @@
+/*
+ * Copyright 2017 JOOTNET Project
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * Support: https://github.com/jootnet/mir2.core
+ */
+package core.export;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import core.image.ImageInfo;
+import core.image.ImageLibrary;
+
+/**
+ * 图片批量导出流水线<br>
+ * 导出分为解码、编码、写入三个阶段，每个阶段有独立的线程池，阶段之间通过有界队列连接，
+ * 下一阶段处理不过来时上一阶段阻塞等待，同时处理中的图片数量因此有上限<br>
+ * 图片库使用无游标的定位读取和线程独立的临时缓冲区，多个解码线程可以直接共享同一个图片库对象<br>
+ * 一个流水线可以依次或同时导出多个图片库，全部导出完成后调用{@link #close()}
+ * 
+ * @author 云中双月
+ */
+public final class ExportPipeline implements Closeable {
+
+	/* 阶段队列已满时阻塞提交线程 */
+	private static final RejectedExecutionHandler BLOCK = new RejectedExecutionHandler() {
+		public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+			if (executor.isShutdown())
+				throw new RejectedExecutionException("pipeline closed");
+			try {
+				executor.getQueue().put(r);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RejectedExecutionException(e);
+			}
+		}
+	};
+
+	/**
+	 * 单张图片的处理回调，在处理线程中调用
+	 */
+	interface Listener {
+
+		/**
+		 * 编码完成，写入文件之前调用
+		 * 
+		 * @return false表示输出文件已有相同内容，不再写入，图片视为导出成功
+		 */
+		boolean beforeWrite(int index, File target, byte[] data);
+
+		/**
+		 * 图片处理结束
+		 * 
+		 * @param data
+		 * 		导出成功时为文件数据，否则为null
+		 * @param empty
+		 * 		是否为空图片(没有图片信息或宽高不超过1)而跳过，解码失败不属于空图片
+		 */
+		void finished(int index, byte[] data, boolean empty);
+	}
+
+	private final FrameEncoder encoder;
+	private final ThreadPoolExecutor decoders;
+	private final ThreadPoolExecutor encoders;
+	private final ThreadPoolExecutor writers;
+
+	/* 已提交但尚未结束的图片数量 */
+	private long pending;
+	private final Object pending_locker = new Object();
+	private final AtomicLong exportedCount = new AtomicLong();
+	private final AtomicLong skippedCount = new AtomicLong();
+	private final AtomicLong failedCount = new AtomicLong();
+
+	/**
+	 * 按处理器数量创建导出流水线<br>
+	 * 解码和编码阶段各使用与处理器数量相同的线程，写入阶段使用4个线程
+	 * 
+	 * @param encoder
+	 * 		图片编码器
+	 */
+	public ExportPipeline(FrameEncoder encoder) {
+		this(encoder, Runtime.getRuntime().availableProcessors(), Runtime.getRuntime().availableProcessors(), 4,
+				Runtime.getRuntime().availableProcessors() * 4);
+	}
+
+	/**
+	 * 创建导出流水线
+	 * 
+	 * @param encoder
+	 * 		图片编码器
+	 * @param decodeThreads
+	 * 		解码线程数
+	 * @param encodeThreads
+	 * 		编码线程数
+	 * @param writeThreads
+	 * 		写入线程数
+	 * @param queueCapacity
+	 * 		每个阶段等待处理的最大图片数量
+	 */
+	public ExportPipeline(FrameEncoder encoder, int decodeThreads, int encodeThreads, int writeThreads,
+			int queueCapacity) {
+		this.encoder = encoder;
+		decoders = stage("export-decode", decodeThreads, queueCapacity);
+		encoders = stage("export-encode", encodeThreads, queueCapacity);
+		writers = stage("export-write", writeThreads, queueCapacity);
+	}
+
+	private static ThreadPoolExecutor stage(final String name, int threads, int queueCapacity) {
+		return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(queueCapacity), new ThreadFactory() {
+					private final AtomicInteger id = new AtomicInteger();
+
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, name + "-" + id.incrementAndGet());
+						t.setDaemon(true);
+						return t;
+					}
+				}, BLOCK);
+	}
+
+	/**
+	 * 导出图片库中的所有图片<br>
+	 * 文件名为前缀加图片索引，空图片和宽高不大于1的图片跳过<br>
+	 * 图片提交到解码阶段后即返回，解码队列已满时阻塞
+	 * 
+	 * @param library
+	 * 		图片库
+	 * @param directory
+	 * 		输出目录，不存在时自动创建
+	 * @param prefix
+	 * 		文件名前缀
+	 */
+	public void export(ImageLibrary library, File directory, String prefix) {
+		directory.mkdirs();
+		for (int index = 0; index < library.count(); ++index)
+			export(library, index, new File(directory, prefix + index + "." + encoder.extension()));
+	}
+
+	/* 输出文件的扩展名 */
+	String extension() {
+		return encoder.extension();
+	}
+
+	/**
+	 * 导出一张图片
+	 * 
+	 * @param library
+	 * 		图片库
+	 * @param index
+	 * 		图片索引
+	 * @param target
+	 * 		输出文件
+	 */
+	public void export(ImageLibrary library, int index, File target) {
+		export(library, index, target, null);
+	}
+
+	/**
+	 * 导出一张图片，并在处理过程中通知回调
+	 * 
+	 * @param listener
+	 * 		回调，可以为null
+	 */
+	void export(final ImageLibrary library, final int index, final File target, final Listener listener) {
+		synchronized (pending_locker) {
+			pending++;
+		}
+		try {
+			decoders.execute(new Runnable() {
+				public void run() {
+					decode(library, index, target, listener);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			finish(failedCount, listener, index, null);
+			throw e;
+		}
+	}
+
+	/* 解码阶段 */
+	private void decode(ImageLibrary library, int index, final File target, final Listener listener) {
+		try {
+			ImageInfo ii = library.info(index);
+			if (ii == ImageInfo.EMPTY || ii.getWidth() <= 1 || ii.getHeight() <= 1) {
+				finish(skippedCount, listener, index, null);
+				return;
+			}
+			ExportFrame decoded = null;
+			if (encoder.indexed() && ii.getColorBit() == 8) {
+				byte[] indices = new byte[ii.getWidth() * ii.getHeight()];
+				if (library.decodeIndexedInto(index, indices, 0))
+					decoded = new ExportFrame(library, index, ii.getWidth(), ii.getHeight(), 8, null, indices);
+			}
+			if (decoded == null) {
+				int[] argb = new int[ii.getWidth() * ii.getHeight()];
+				if (!library.decodeInto(index, argb, 0)) {
+					// 有图片信息但解码失败，按失败处理，再次导出时重试
+					finish(failedCount, listener, index, null);
+					return;
+				}
+				decoded = new ExportFrame(library, index, ii.getWidth(), ii.getHeight(), ii.getColorBit(), argb);
+			}
+			final ExportFrame frame = decoded;
+			encoders.execute(new Runnable() {
+				public void run() {
+					encode(frame, target, listener);
+				}
+			});
+		} catch (Exception e) {
+			e.printStackTrace();
+			finish(failedCount, listener, index, null);
+		}
+	}
+
+	/* 编码阶段 */
+	private void encode(ExportFrame frame, final File target, final Listener listener) {
+		final int index = frame.getIndex();
+		try {
+			final byte[] data = encoder.encode(frame);
+			if (listener != null && !listener.beforeWrite(index, target, data)) {
+				finish(exportedCount, listener, index, data);
+				return;
+			}
+			writers.execute(new Runnable() {
+				public void run() {
+					write(index, data, target, listener);
+				}
+			});
+		} catch (Exception e) {
+			e.printStackTrace();
+			finish(failedCount, listener, index, null);
+		}
+	}
+
+	/* 写入阶段 */
+	private void write(int index, byte[] data, File target, Listener listener) {
+		try {
+			FileOutputStream out = new FileOutputStream(target);
+			try {
+				out.write(data);
+			} finally {
+				out.close();
+			}
+			finish(exportedCount, listener, index, data);
+		} catch (IOException e) {
+			e.printStackTrace();
+			finish(failedCount, listener, index, null);
+		}
+	}
+
+	/* 一张图片处理结束 */
+	private void finish(AtomicLong counter, Listener listener, int index, byte[] data) {
+		counter.incrementAndGet();
+		if (listener != null) {
+			try {
+				listener.finished(index, data, counter == skippedCount);
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+			}
+		}
+		synchronized (pending_locker) {
+			if (--pending == 0)
+				pending_locker.notifyAll();
+		}
+	}
+
+	/**
+	 * 等待所有已提交的图片处理结束
+	 * 
+	 * @throws InterruptedException
+	 * 		等待时被中断
+	 */
+	public void awaitCompletion() throws InterruptedException {
+		synchronized (pending_locker) {
+			while (pending > 0)
+				pending_locker.wait();
+		}
+	}
+
+	/**
+	 * 等待所有已提交的图片处理结束并关闭线程池
+	 */
+	public void close() throws IOException {
+		try {
+			awaitCompletion();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			decoders.shutdown();
+			encoders.shutdown();
+			writers.shutdown();
+		}
+	}
+
+	/**
+	 * 获取成功导出的图片数量
+	 * 
+	 * @return 图片数量
+	 */
+	public long getExportedCount() {
+		return exportedCount.get();
+	}
+
+	/**
+	 * 获取因空图片跳过的图片数量
+	 * 
+	 * @return 图片数量
+	 */
+	public long getSkippedCount() {
+		return skippedCount.get();
+	}
+
+	/**
+	 * 获取解码、编码或写入失败的图片数量
+	 * 
+	 * @return 图片数量
+	 */
+	public long getFailedCount() {
+		return failedCount.get();
+	}
+}
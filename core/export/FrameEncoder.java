@@ -0,0 +1,56 @@
+/*
+ * Copyright 2017 JOOTNET Project
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * Support: https://github.com/jootnet/mir2.core
+ */
+package core.export;
+
+import java.io.IOException;
+
+/**
+ * 图片编码器，将解码后的图片编码为文件数据<br>
+ * 会被多个编码线程同时调用，实现类需要线程安全
+ * 
+ * @author 云中双月
+ */
+public interface FrameEncoder {
+
+	/**
+	 * 获取编码后文件的扩展名
+	 * 
+	 * @return 扩展名，不含"."
+	 */
+	String extension();
+
+	/**
+	 * 是否接受调色板索引格式的图片<br>
+	 * 返回true时8位图片以{@link ExportFrame#getIndices()}提供像素，不再展开为ARGB
+	 * 
+	 * @return 默认为false
+	 */
+	default boolean indexed() {
+		return false;
+	}
+
+	/**
+	 * 编码图片
+	 * 
+	 * @param frame
+	 * 		解码后的图片
+	 * @return 文件数据
+	 * @throws IOException
+	 * 		编码失败
+	 */
+	byte[] encode(ExportFrame frame) throws IOException;
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2017 JOOTNET Project
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * Support: https://github.com/jootnet/mir2.core
+ */
+package core.export;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+/**
+ * 使用{@link ImageIO}将图片编码为PNG
+ * 
+ * @author 云中双月
+ */
+public final class ImageIOFrameEncoder implements FrameEncoder {
+
+	public String extension() {
+		return "png";
+	}
+
+	public byte[] encode(ExportFrame frame) throws IOException {
+		BufferedImage image = new BufferedImage(frame.getWidth(), frame.getHeight(), BufferedImage.TYPE_INT_ARGB);
+		int[] argb = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+		System.arraycopy(frame.getARGB(), 0, argb, 0, argb.length);
+		ByteArrayOutputStream out = new ByteArrayOutputStream(argb.length);
+		if (!ImageIO.write(image, "png", out))
+			throw new IOException("no png writer");
+		return out.toByteArray();
+	}
+}
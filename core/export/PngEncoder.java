@@ -0,0 +1,387 @@
+/*
+ * Copyright 2017 JOOTNET Project
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * Support: https://github.com/jootnet/mir2.core
+ */
+package core.export;
+
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import core.SDK;
+
+/**
+ * PNG编码器<br>
+ * 直接从解码后的像素数组编码，不经过{@link java.awt.image.BufferedImage}和ImageIO<br>
+ * 解码后的像素只有透明黑色和不透明的非黑色两种，此时以RGB格式加tRNS透明色(黑色)输出，比RGBA少四分之一的数据；
+ * 含有其他透明度的像素或不透明黑色时以RGBA格式输出<br>
+ * 8位图片默认直接以调色板索引输出(PLTE加tRNS)，不展开为RGB，数据量为RGB格式的三分之一<br>
+ * 每行可以按最小绝对值和的规则从五种PNG过滤方式中选择一种，压缩器、校验器以及临时缓冲区由每个线程各自复用
+ * 
+ * @author 云中双月
+ */
+public final class PngEncoder implements FrameEncoder {
+
+	private static final byte[] SIGNATURE = { (byte) 137, 80, 78, 71, 13, 10, 26, 10 };
+	private static final byte[] IHDR = { 'I', 'H', 'D', 'R' };
+	private static final byte[] PLTE = { 'P', 'L', 'T', 'E' };
+	private static final byte[] TRNS = { 't', 'R', 'N', 'S' };
+	private static final byte[] IDAT = { 'I', 'D', 'A', 'T' };
+	private static final byte[] IEND = { 'I', 'E', 'N', 'D' };
+	/* 色彩类型 */
+	private static final int COLOR_RGB = 2;
+	private static final int COLOR_INDEXED = 3;
+	private static final int COLOR_RGBA = 6;
+	/* 由SDK.palletesTransparent生成的调色板和透明度，透明度只保留到最后一个透明色 */
+	private static final byte[] PALETTE = new byte[256 * 3];
+	private static final byte[] PALETTE_ALPHA;
+	static {
+		int[] pallete = SDK.palletesTransparent;
+		int alphaLength = 0;
+		for (int i = 0; i < 256; ++i) {
+			PALETTE[i * 3] = (byte) (pallete[i] >> 16);
+			PALETTE[i * 3 + 1] = (byte) (pallete[i] >> 8);
+			PALETTE[i * 3 + 2] = (byte) pallete[i];
+			if (pallete[i] == 0)
+				alphaLength = i + 1;
+		}
+		PALETTE_ALPHA = new byte[alphaLength];
+		for (int i = 0; i < alphaLength; ++i)
+			PALETTE_ALPHA[i] = pallete[i] == 0 ? 0 : (byte) 0xff;
+	}
+
+	/* 线程独立的编码状态 */
+	private static final class State {
+		final Deflater deflater = new Deflater();
+		final CRC32 crc = new CRC32();
+		/* 未过滤的当前行和上一行 */
+		byte[] row = new byte[0];
+		byte[] prior = new byte[0];
+		/* 各过滤方式的结果，下标为过滤方式 */
+		final byte[][] filtered = new byte[5][0];
+		/* 过滤后的全部数据 */
+		byte[] raw = new byte[0];
+		/* 压缩后的数据 */
+		byte[] compressed = new byte[0];
+
+		void ensure(int rowLength, int rawLength) {
+			if (row.length < rowLength) {
+				row = new byte[rowLength];
+				prior = new byte[rowLength];
+				for (int i = 0; i < filtered.length; ++i)
+					filtered[i] = new byte[rowLength];
+			}
+			if (raw.length < rawLength)
+				raw = new byte[rawLength];
+		}
+	}
+
+	private final int level;
+	private final boolean adaptive;
+	private final boolean indexed;
+	private final ThreadLocal<State> states = new ThreadLocal<State>() {
+		@Override
+		protected State initialValue() {
+			return new State();
+		}
+	};
+
+	/**
+	 * 使用默认压缩级别(4，与ImageIO一致)和自适应过滤创建编码器，8位图片以调色板索引输出
+	 */
+	public PngEncoder() {
+		this(4, true, true);
+	}
+
+	/**
+	 * 创建编码器，所有图片以RGB或RGBA输出
+	 * 
+	 * @param level
+	 * 		压缩级别，0(不压缩)到9(最小文件)，级别越低编码越快
+	 * @param adaptive
+	 * 		是否为每行选择过滤方式，false时不过滤，编码更快但文件较大
+	 */
+	public PngEncoder(int level, boolean adaptive) {
+		this(level, adaptive, false);
+	}
+
+	/**
+	 * 创建编码器
+	 * 
+	 * @param level
+	 * 		压缩级别，0(不压缩)到9(最小文件)，级别越低编码越快
+	 * @param adaptive
+	 * 		是否为每行选择过滤方式，false时不过滤，编码更快但文件较大
+	 * @param indexed
+	 * 		8位图片是否以调色板索引输出
+	 */
+	public PngEncoder(int level, boolean adaptive, boolean indexed) {
+		if (level < 0 || level > 9)
+			throw new IllegalArgumentException("level must be 0-9 !!!");
+		this.level = level;
+		this.adaptive = adaptive;
+		this.indexed = indexed;
+	}
+
+	public String extension() {
+		return "png";
+	}
+
+	public boolean indexed() {
+		return indexed;
+	}
+
+	public byte[] encode(ExportFrame frame) {
+		if (frame.getIndices() != null)
+			return encodeIndexed(frame.getIndices(), frame.getWidth(), frame.getHeight());
+		return encode(frame.getARGB(), frame.getWidth(), frame.getHeight());
+	}
+
+	/**
+	 * 将ARGB像素编码为PNG
+	 * 
+	 * @param argb
+	 * 		像素数据，从图片左上角到右下角
+	 * @param width
+	 * 		图片宽度
+	 * @param height
+	 * 		图片高度
+	 * @return PNG文件数据
+	 */
+	public byte[] encode(int[] argb, int width, int height) {
+		boolean keyed = true;
+		for (int i = 0, n = width * height; i < n; ++i) {
+			int a = argb[i] >>> 24;
+			// 不透明黑色在tRNS下会变成透明，同样需要RGBA
+			if (a == 0 ? argb[i] != 0 : a != 0xff || argb[i] == 0xff000000) {
+				keyed = false;
+				break;
+			}
+		}
+		int bpp = keyed ? 3 : 4;
+		State state = states.get();
+		int rowLength = width * bpp;
+		state.ensure(rowLength, (rowLength + 1) * height);
+		Arrays.fill(state.prior, 0, rowLength, (byte) 0);
+		for (int y = 0, src = 0; y < height; ++y) {
+			byte[] row = state.row;
+			if (keyed) {
+				for (int x = 0, d = 0; x < width; ++x, d += 3) {
+					int p = argb[src++];
+					row[d] = (byte) (p >> 16);
+					row[d + 1] = (byte) (p >> 8);
+					row[d + 2] = (byte) p;
+				}
+			} else {
+				for (int x = 0, d = 0; x < width; ++x, d += 4) {
+					int p = argb[src++];
+					row[d] = (byte) (p >> 16);
+					row[d + 1] = (byte) (p >> 8);
+					row[d + 2] = (byte) p;
+					row[d + 3] = (byte) (p >>> 24);
+				}
+			}
+			filterRow(state, y * (rowLength + 1), rowLength, bpp);
+		}
+		return write(state, width, height, keyed ? COLOR_RGB : COLOR_RGBA, keyed, 0, (rowLength + 1) * height);
+	}
+
+	/**
+	 * 将8位调色板索引编码为PNG，调色板为{@link SDK#palletes}，黑色为透明色<br>
+	 * 调色板只写入到图片中用到的最大索引为止；调色板图片按PNG规范的建议不做过滤
+	 * 
+	 * @param indices
+	 * 		调色板索引，每个像素一个字节，从图片左上角到右下角
+	 * @param width
+	 * 		图片宽度
+	 * @param height
+	 * 		图片高度
+	 * @return PNG文件数据
+	 */
+	public byte[] encodeIndexed(byte[] indices, int width, int height) {
+		State state = states.get();
+		state.ensure(0, (width + 1) * height);
+		byte[] raw = state.raw;
+		int max = 0;
+		for (int i = 0, n = width * height; i < n; ++i)
+			max = Math.max(max, indices[i] & 0xff);
+		for (int y = 0, pos = 0; y < height; ++y, pos += width + 1) {
+			raw[pos] = 0;
+			System.arraycopy(indices, y * width, raw, pos + 1, width);
+		}
+		int paletteSize = max + 1;
+		return write(state, width, height, COLOR_INDEXED, Math.min(paletteSize, PALETTE_ALPHA.length) > 0, paletteSize,
+				(width + 1) * height);
+	}
+
+	/**
+	 * 将RGB像素编码为PNG，黑色为透明色，与{@link core.Texture#getRGBs()}格式一致
+	 * 
+	 * @param sRGB
+	 * 		像素数据，每个像素3个字节，从图片左上角到右下角
+	 * @param width
+	 * 		图片宽度
+	 * @param height
+	 * 		图片高度
+	 * @return PNG文件数据
+	 */
+	public byte[] encode(byte[] sRGB, int width, int height) {
+		State state = states.get();
+		int rowLength = width * 3;
+		state.ensure(rowLength, (rowLength + 1) * height);
+		Arrays.fill(state.prior, 0, rowLength, (byte) 0);
+		for (int y = 0; y < height; ++y) {
+			System.arraycopy(sRGB, y * rowLength, state.row, 0, rowLength);
+			filterRow(state, y * (rowLength + 1), rowLength, 3);
+		}
+		return write(state, width, height, COLOR_RGB, true, 0, (rowLength + 1) * height);
+	}
+
+	/* 过滤当前行并写入state.raw的指定位置，随后将当前行作为上一行 */
+	private void filterRow(State state, int pos, int length, int bpp) {
+		byte[] row = state.row;
+		byte[] prior = state.prior;
+		int type = 0;
+		byte[] best = row;
+		if (adaptive) {
+			byte[][] f = state.filtered;
+			byte[] sub = f[1], up = f[2], avg = f[3], paeth = f[4];
+			long sumNone = 0, sumSub = 0, sumUp = 0, sumAvg = 0, sumPaeth = 0;
+			for (int i = 0; i < length; ++i)
+				sumNone += Math.abs(row[i]);
+			for (int i = 0; i < bpp; ++i)
+				sub[i] = row[i];
+			for (int i = bpp; i < length; ++i)
+				sub[i] = (byte) (row[i] - row[i - bpp]);
+			for (int i = 0; i < length; ++i)
+				sumSub += Math.abs(sub[i]);
+			for (int i = 0; i < length; ++i)
+				up[i] = (byte) (row[i] - prior[i]);
+			for (int i = 0; i < length; ++i)
+				sumUp += Math.abs(up[i]);
+			for (int i = 0; i < bpp; ++i)
+				avg[i] = (byte) (row[i] - ((prior[i] & 0xff) >> 1));
+			for (int i = bpp; i < length; ++i)
+				avg[i] = (byte) (row[i] - (((row[i - bpp] & 0xff) + (prior[i] & 0xff)) >> 1));
+			for (int i = 0; i < length; ++i)
+				sumAvg += Math.abs(avg[i]);
+			for (int i = 0; i < bpp; ++i)
+				paeth[i] = (byte) (row[i] - prior[i]);
+			for (int i = bpp; i < length; ++i) {
+				paeth[i] = (byte) (row[i] - paeth(row[i - bpp] & 0xff, prior[i] & 0xff, prior[i - bpp] & 0xff));
+				sumPaeth += Math.abs(paeth[i]);
+			}
+			for (int i = 0; i < bpp && i < length; ++i)
+				sumPaeth += Math.abs(paeth[i]);
+			// 选择绝对值和最小的过滤方式
+			long bestSum = sumNone;
+			if (sumSub < bestSum) {
+				bestSum = sumSub;
+				best = sub;
+				type = 1;
+			}
+			if (sumUp < bestSum) {
+				bestSum = sumUp;
+				best = up;
+				type = 2;
+			}
+			if (sumAvg < bestSum) {
+				bestSum = sumAvg;
+				best = avg;
+				type = 3;
+			}
+			if (sumPaeth < bestSum) {
+				best = paeth;
+				type = 4;
+			}
+		}
+		state.raw[pos] = (byte) type;
+		System.arraycopy(best, 0, state.raw, pos + 1, length);
+		state.row = prior;
+		state.prior = row;
+	}
+
+	private static int paeth(int a, int b, int c) {
+		int p = a + b - c;
+		int pa = Math.abs(p - a);
+		int pb = Math.abs(p - b);
+		int pc = Math.abs(p - c);
+		if (pa <= pb && pa <= pc)
+			return a;
+		if (pb <= pc)
+			return b;
+		return c;
+	}
+
+	/* 压缩过滤后的数据并组装PNG文件，paletteSize为调色板图片写入的调色板颜色数 */
+	private byte[] write(State state, int width, int height, int colorType, boolean keyed, int paletteSize,
+			int rawLength) {
+		Deflater deflater = state.deflater;
+		deflater.reset();
+		deflater.setLevel(level);
+		deflater.setStrategy(adaptive && colorType != COLOR_INDEXED ? Deflater.FILTERED : Deflater.DEFAULT_STRATEGY);
+		deflater.setInput(state.raw, 0, rawLength);
+		deflater.finish();
+		int compressedLength = 0;
+		if (state.compressed.length < 64)
+			state.compressed = new byte[Math.max(64, rawLength / 2)];
+		while (!deflater.finished()) {
+			if (compressedLength == state.compressed.length)
+				state.compressed = Arrays.copyOf(state.compressed, state.compressed.length * 2);
+			compressedLength += deflater.deflate(state.compressed, compressedLength,
+					state.compressed.length - compressedLength);
+		}
+		boolean palette = colorType == COLOR_INDEXED;
+		int alphaSize = palette ? Math.min(paletteSize, PALETTE_ALPHA.length) : 6;
+		int length = SIGNATURE.length + (12 + 13) + (palette ? 12 + paletteSize * 3 : 0)
+				+ (keyed ? 12 + alphaSize : 0) + (12 + compressedLength) + 12;
+		byte[] png = new byte[length];
+		System.arraycopy(SIGNATURE, 0, png, 0, SIGNATURE.length);
+		int pos = SIGNATURE.length;
+		byte[] header = new byte[13];
+		putInt(header, 0, width);
+		putInt(header, 4, height);
+		header[8] = 8; // 每个通道或索引8位
+		header[9] = (byte) colorType;
+		pos = chunk(state.crc, png, pos, IHDR, header, 13);
+		if (palette)
+			pos = chunk(state.crc, png, pos, PLTE, PALETTE, paletteSize * 3);
+		if (keyed && palette)
+			pos = chunk(state.crc, png, pos, TRNS, PALETTE_ALPHA, alphaSize);
+		else if (keyed)
+			pos = chunk(state.crc, png, pos, TRNS, new byte[6], 6); // 黑色透明
+		pos = chunk(state.crc, png, pos, IDAT, state.compressed, compressedLength);
+		chunk(state.crc, png, pos, IEND, header, 0);
+		return png;
+	}
+
+	/* 写入一个数据块，返回写入后的位置 */
+	private static int chunk(CRC32 crc, byte[] png, int pos, byte[] type, byte[] data, int length) {
+		putInt(png, pos, length);
+		System.arraycopy(type, 0, png, pos + 4, 4);
+		System.arraycopy(data, 0, png, pos + 8, length);
+		crc.reset();
+		crc.update(png, pos + 4, length + 4);
+		putInt(png, pos + 8 + length, (int) crc.getValue());
+		return pos + 12 + length;
+	}
+
+	private static void putInt(byte[] b, int pos, int v) {
+		b[pos] = (byte) (v >>> 24);
+		b[pos + 1] = (byte) (v >>> 16);
+		b[pos + 2] = (byte) (v >>> 8);
+		b[pos + 3] = (byte) v;
+	}
+}
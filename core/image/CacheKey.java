@@ -0,0 +1,46 @@
+package core.image;
+
+/*
+ * Copyright 2017 JOOTNET Project
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Support: https://github.com/jootnet/mir2.core
+ */
+
+/**
+ * 图片缓存的键，由图片库和图片索引组成，图片库按对象比较
+ *
+ * @author 云中双月
+ */
+final class CacheKey {
+	final ImageLibrary library;
+	final int index;
+
+	CacheKey(ImageLibrary library, int index) {
+		this.library = library;
+		this.index = index;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof CacheKey))
+			return false;
+		CacheKey other = (CacheKey) obj;
+		return library == other.library && index == other.index;
+	}
+
+	@Override
+	public int hashCode() {
+		return System.identityHashCode(library) * 31 + index;
+	}
+}
@@ -0,0 +1,93 @@
+package core.image;
+
+/*
+ * Copyright 2017 JOOTNET Project
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Support: https://github.com/jootnet/mir2.core
+ */
+
+import java.io.IOException;
+
+import core.Texture;
+
+/**
+ * 带解码缓存的图片库<br>
+ * {@link #tex(int)}和{@link #decodeInto(int, byte[], int)}通过{@link ImageCache}获取图片，
+ * 同一张图片只在首次请求或被淘汰后解码<br>
+ * ARGB和调色板索引解码不经过缓存，直接由原图片库完成
+ *
+ * @author 云中双月
+ */
+public final class CachedImageLibrary implements ImageLibrary {
+
+	private final ImageLibrary library;
+	private final ImageCache cache;
+
+	/**
+	 * 为图片库添加解码缓存
+	 *
+	 * @param library
+	 * 		原图片库
+	 * @param cache
+	 * 		使用的缓存，如{@link TextureCache}或{@link OffHeapTextureCache}，可以由多个图片库共享
+	 */
+	public CachedImageLibrary(ImageLibrary library, ImageCache cache) {
+		this.library = library;
+		this.cache = cache;
+	}
+
+	/**
+	 * 获取原图片库
+	 *
+	 * @return 原图片库
+	 */
+	public ImageLibrary getLibrary() {
+		return library;
+	}
+
+	public int count() {
+		return library.count();
+	}
+
+	/**
+	 * 获取图片，使用{@link TextureCache}时返回的对象被其他调用方共享，不应修改其色彩数据
+	 */
+	public Texture tex(int index) {
+		return cache.get(library, index);
+	}
+
+	public boolean decodeInto(int index, byte[] sRGB, int off) {
+		return cache.decodeInto(library, index, sRGB, off);
+	}
+
+	public boolean decodeInto(int index, int[] argb, int off) {
+		return library.decodeInto(index, argb, off);
+	}
+
+	public boolean decodeIndexedInto(int index, byte[] indices, int off) {
+		return library.decodeIndexedInto(index, indices, off);
+	}
+
+	public ImageInfo info(int index) {
+		return library.info(index);
+	}
+
+	/**
+	 * 移除缓存中属于此图片库的图片并关闭原图片库
+	 */
+	public void close() throws IOException {
+		cache.invalidate(library);
+		library.close();
+	}
+}
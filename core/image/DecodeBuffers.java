@@ -0,0 +1,95 @@
+package core.image;
+
+/*
+ * Copyright 2017 JOOTNET Project
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Support: https://github.com/jootnet/mir2.core
+ */
+
+/**
+ * 图片解码使用的线程独立临时缓冲区<br>
+ * 缓冲区只增不减，同一线程反复解码时不再分配新数组<br>
+ * 返回的数组只在下一次向同一线程请求同类缓冲区之前有效，且长度可能大于请求的长度
+ *
+ * @author 云中双月
+ */
+final class DecodeBuffers {
+
+	private static final byte[] NONE = new byte[0];
+
+	private static final ThreadLocal<DecodeBuffers> LOCAL = new ThreadLocal<DecodeBuffers>() {
+		@Override
+		protected DecodeBuffers initialValue() {
+			return new DecodeBuffers();
+		}
+	};
+
+	/* 从文件中读出的原始数据 */
+	private byte[] packed = NONE;
+	/* 解压后的像素数据 */
+	private byte[] pixels = NONE;
+	/* 解码后的RGB数据 */
+	private byte[] rgb = NONE;
+
+	private DecodeBuffers() {
+	}
+
+	/**
+	 * 获取当前线程的缓冲区
+	 *
+	 * @return 当前线程独有的缓冲区对象
+	 */
+	static DecodeBuffers get() {
+		return LOCAL.get();
+	}
+
+	/**
+	 * 获取存放文件原始数据的缓冲区
+	 *
+	 * @param length
+	 * 		需要的最小长度
+	 * @return 缓冲区数组
+	 */
+	byte[] packed(int length) {
+		if (packed.length < length)
+			packed = new byte[length];
+		return packed;
+	}
+
+	/**
+	 * 获取存放解压后像素数据的缓冲区
+	 *
+	 * @param length
+	 * 		需要的最小长度
+	 * @return 缓冲区数组
+	 */
+	byte[] pixels(int length) {
+		if (pixels.length < length)
+			pixels = new byte[length];
+		return pixels;
+	}
+
+	/**
+	 * 获取存放解码后RGB数据的缓冲区
+	 *
+	 * @param length
+	 * 		需要的最小长度
+	 * @return 缓冲区数组
+	 */
+	byte[] rgb(int length) {
+		if (rgb.length < length)
+			rgb = new byte[length];
+		return rgb;
+	}
+}
@@ -0,0 +1,492 @@
+package core.image;
+
+/*
+ * Copyright 2017 JOOTNET Project
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Support: https://github.com/jootnet/mir2.core
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import core.Texture;
+
+/**
+ * 磁盘上的解码图片缓存，重启后仍然有效<br>
+ * 每个图片库在缓存目录中对应一个索引文件(*.G.frames)和若干个数据段文件(*.G.N.data)，G为缓存的代数，
+ * 解码后的RGB数据依次追加到数据段中，读取和写入都通过内存映射进行，读取时不再需要解压和调色板转换<br>
+ * 索引文件记录了图片库文件的长度和修改时间，图片库文件改变后在新的一代文件中重建缓存，
+ * 已有文件不截断，其他JVM或旧的缓存对象仍映射着的旧文件保持可读；旧的一代文件在重建后删除，删除失败(如Windows上仍被映射)时留到下次重建<br>
+ * 同一台机器上的多个JVM可以同时使用同一个缓存目录，写入时使用文件锁互斥，索引项的状态最后以release语义写入，读取时以acquire语义检查，
+ * 读到有效状态时图片数据和其他字段一定已经写入；同一JVM中打开的缓存文件由所有缓存对象共享<br>
+ * 图片库需要通过{@link #wrap(ImageLibrary, String)}与其文件路径关联后才会被缓存，
+ * 关闭包装后的图片库或调用{@link #invalidate(ImageLibrary)}、{@link #close()}时解除关联，
+ * 缓存文件在最后一个关联解除后关闭，已映射的数据段在没有引用后由垃圾回收释放
+ *
+ * @author 云中双月
+ */
+public final class DiskTextureCache implements ImageCache {
+
+	/* 文件标识"MFRM" */
+	private static final int MAGIC = 0x4D52464D;
+	private static final int VERSION = 1;
+	/* 默认数据段大小，数据段文件预先设置为此长度，未写入的部分不占用磁盘空间 */
+	private static final int DEFAULT_SEGMENT_SIZE = 256 * 1024 * 1024;
+
+	/* 索引文件头：标识、版本、图片库长度、图片库修改时间、图片数量、数据段大小、当前数据段、当前写入位置 */
+	private static final int HEADER_SIZE = 40;
+	private static final int H_CURRENT_SEGMENT = 32;
+	private static final int H_WRITE_POSITION = 36;
+	/* 索引项：状态(1表示有效，最后写入)、数据段、偏移、长度、宽度、高度 */
+	private static final int ENTRY_SIZE = 20;
+
+	private final File directory;
+	private final int segmentSize;
+	private final ConcurrentMap<ImageLibrary, Store> stores = new ConcurrentHashMap<ImageLibrary, Store>();
+	/* 当前JVM中已打开的缓存文件，文件锁属于整个进程，同一文件只能打开一次；没有关联的图片库时移除并关闭 */
+	private static final Map<File, Store> openStores = new HashMap<File, Store>();
+	/* 以小端int访问映射的索引文件，用于索引项状态的release写入和acquire读取 */
+	private static final VarHandle INT_LE = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+
+	/**
+	 * 使用默认数据段大小(256MB)创建磁盘图片缓存
+	 *
+	 * @param directory
+	 * 		缓存目录，不存在时自动创建
+	 */
+	public DiskTextureCache(File directory) {
+		this(directory, DEFAULT_SEGMENT_SIZE);
+	}
+
+	/**
+	 * 创建磁盘图片缓存<br>
+	 * 使用同一目录的所有缓存对象应使用相同的数据段大小，否则已有缓存会被清空重建
+	 *
+	 * @param directory
+	 * 		缓存目录，不存在时自动创建
+	 * @param segmentSize
+	 * 		每个数据段文件的字节数，同时也是可缓存的最大图片数据长度
+	 */
+	public DiskTextureCache(File directory, int segmentSize) {
+		if (segmentSize <= 0)
+			throw new IllegalArgumentException("segmentSize must be positive !!!");
+		directory.mkdirs();
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+	}
+
+	/**
+	 * 将图片库与其文件关联并添加缓存
+	 *
+	 * @param library
+	 * 		图片库
+	 * @param libraryPath
+	 * 		图片库数据文件路径(WIL/WZL/WIS)，用于确定缓存文件以及判断缓存是否过期
+	 * @return 带磁盘缓存的图片库，缓存文件无法打开时返回原图片库
+	 */
+	public ImageLibrary wrap(ImageLibrary library, String libraryPath) {
+		try {
+			Store previous = stores.put(library, openStore(new File(libraryPath).getCanonicalFile(), library.count()));
+			if (previous != null)
+				release(previous);
+			return new CachedImageLibrary(library, this);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return library;
+		}
+	}
+
+	public Texture get(ImageLibrary library, int index) {
+		ImageInfo ii = library.info(index);
+		if (ii == ImageInfo.EMPTY)
+			return Texture.EMPTY;
+		byte[] sRGB = new byte[ii.getWidth() * ii.getHeight() * 3];
+		if (!decodeInto(library, index, sRGB, 0))
+			return Texture.EMPTY;
+		return new Texture(sRGB, ii.getWidth(), ii.getHeight());
+	}
+
+	public boolean decodeInto(ImageLibrary library, int index, byte[] sRGB, int off) {
+		Store store = stores.get(library);
+		if (store == null)
+			return library.decodeInto(index, sRGB, off);
+		boolean decoded = false;
+		try {
+			if (store.read(index, sRGB, off)) {
+				hitCount.incrementAndGet();
+				return true;
+			}
+			missCount.incrementAndGet();
+			ImageInfo ii = library.info(index);
+			if (ii == ImageInfo.EMPTY || !library.decodeInto(index, sRGB, off))
+				return false;
+			decoded = true;
+			store.write(index, sRGB, off, ii.getWidth() * ii.getHeight() * 3, ii.getWidth(), ii.getHeight());
+			return true;
+		} catch (IOException e) {
+			e.printStackTrace();
+			// 已解码只是写入缓存失败时不再重复解码
+			return decoded || library.decodeInto(index, sRGB, off);
+		}
+	}
+
+	/**
+	 * 打开图片库对应的缓存文件并增加关联数量，已打开且仍然有效时直接返回<br>
+	 * 图片库已改变时打开新的缓存文件，旧的缓存文件仍由已关联的图片库使用，在其全部解除关联后关闭
+	 */
+	private Store openStore(File library, int imageCount) throws IOException {
+		String name = library.getName() + "-" + Integer.toHexString(library.getPath().hashCode());
+		File file = new File(directory, name).getCanonicalFile();
+		synchronized (openStores) {
+			Store store = openStores.get(file);
+			if (store == null || !store.matches(library, imageCount, segmentSize)) {
+				store = new Store(directory, name, file, library, imageCount, segmentSize);
+				openStores.put(file, store);
+			}
+			store.users++;
+			return store;
+		}
+	}
+
+	/* 减少缓存文件的关联数量，没有关联时关闭 */
+	private static void release(Store store) {
+		synchronized (openStores) {
+			if (--store.users == 0) {
+				openStores.remove(store.key, store);
+				store.close();
+			}
+		}
+	}
+
+	/**
+	 * 取消图片库与缓存文件的关联，已写入磁盘的数据保留<br>
+	 * 缓存文件没有其他关联的图片库时关闭
+	 */
+	public void invalidate(ImageLibrary library) {
+		Store store = stores.remove(library);
+		if (store != null)
+			release(store);
+	}
+
+	/**
+	 * 取消所有图片库与缓存文件的关联并关闭不再使用的缓存文件<br>
+	 * 之后已包装的图片库直接解码，不再使用磁盘缓存
+	 */
+	public void close() {
+		for (ImageLibrary library : stores.keySet())
+			invalidate(library);
+	}
+
+	/**
+	 * 获取命中次数
+	 *
+	 * @return 命中次数
+	 */
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	/**
+	 * 获取未命中(需要解码)次数
+	 *
+	 * @return 未命中次数
+	 */
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	@Override
+	public String toString() {
+		return "DiskTextureCache[" + directory + ", libraries=" + stores.size() + ", hit=" + hitCount.get() + ", miss="
+				+ missCount.get() + "]";
+	}
+
+	/* 一个图片库的缓存文件 */
+	private static final class Store {
+		private final File directory;
+		private final String name;
+		/* 在openStores中的键 */
+		private final File key;
+		/* 关联的图片库数量，在openStores的锁中读写 */
+		private int users;
+		private final long libraryLength;
+		private final long libraryModified;
+		private final int imageCount;
+		private final int segmentSize;
+		/* 缓存的代数，图片库改变时加1，每一代使用各自的文件 */
+		private final int generation;
+		private final RandomAccessFile raf;
+		private final MappedByteBuffer index;
+		/* 已映射的数据段，增加时复制整个数组后替换，读取不加锁 */
+		private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+
+		Store(File directory, String name, File key, File library, int imageCount, int segmentSize) throws IOException {
+			this.directory = directory;
+			this.name = name;
+			this.key = key;
+			this.libraryLength = library.length();
+			this.libraryModified = library.lastModified();
+			this.imageCount = imageCount;
+			this.segmentSize = segmentSize;
+			long length = HEADER_SIZE + (long) imageCount * ENTRY_SIZE;
+			// 查找和重建当前一代的缓存文件时使用单独的锁文件互斥，锁文件不会被映射或截断
+			RandomAccessFile locker = new RandomAccessFile(new File(directory, name + ".lock"), "rw");
+			RandomAccessFile frames = null;
+			try {
+				FileLock lock = locker.getChannel().lock();
+				try {
+					int current = currentGeneration(directory, name);
+					if (current >= 0) {
+						frames = new RandomAccessFile(framesFile(current), "rw");
+						if (!isValid(frames, length)) {
+							frames.close();
+							frames = null;
+						}
+					}
+					if (frames == null) {
+						// 图片库已改变或缓存文件损坏，在新的一代文件中重建
+						current = Math.max(current + 1, 0);
+						create(current, length);
+						frames = new RandomAccessFile(framesFile(current), "rw");
+						purge(directory, name, current);
+					}
+					this.generation = current;
+					index = frames.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+					index.order(ByteOrder.LITTLE_ENDIAN);
+					// 在锁文件的保护下映射已有的数据段，之后即使被其他JVM的重建删除，已映射的数据仍然可读
+					for (int i = 0, n = index.getInt(H_CURRENT_SEGMENT); i <= n; ++i)
+						mapSegment(i, false);
+				} finally {
+					lock.release();
+				}
+			} catch (IOException e) {
+				if (frames != null)
+					frames.close();
+				throw e;
+			} finally {
+				locker.close();
+			}
+			this.raf = frames;
+		}
+
+		private File framesFile(int generation) {
+			return new File(directory, name + "." + generation + ".frames");
+		}
+
+		private File segmentFile(int generation, int i) {
+			return new File(directory, name + "." + generation + "." + i + ".data");
+		}
+
+		/* 索引文件是否与图片库对应 */
+		private boolean isValid(RandomAccessFile frames, long length) throws IOException {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			return frames.length() == length && frames.getChannel().read(header, 0) == HEADER_SIZE
+					&& header.getInt(0) == MAGIC && header.getInt(4) == VERSION
+					&& header.getLong(8) == libraryLength && header.getLong(16) == libraryModified
+					&& header.getInt(24) == imageCount && header.getInt(28) == segmentSize;
+		}
+
+		/* 在临时文件中写好新一代的索引文件后重命名，其他JVM不会看到写了一半的索引文件 */
+		private void create(int generation, long length) throws IOException {
+			// 上次重建中断时留下的数据段从未被引用，可以直接删除
+			for (int i = 0; segmentFile(generation, i).delete(); ++i)
+				;
+			File tmp = new File(directory, name + "." + generation + ".frames.tmp");
+			RandomAccessFile out = new RandomAccessFile(tmp, "rw");
+			try {
+				out.setLength(0);
+				out.setLength(length);
+				ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+				header.putInt(MAGIC).putInt(VERSION).putLong(libraryLength).putLong(libraryModified)
+						.putInt(imageCount).putInt(segmentSize).putInt(0).putInt(0);
+				header.flip();
+				out.getChannel().write(header, 0);
+			} finally {
+				out.close();
+			}
+			Files.move(tmp.toPath(), framesFile(generation).toPath(), StandardCopyOption.ATOMIC_MOVE,
+					StandardCopyOption.REPLACE_EXISTING);
+		}
+
+		/* 目录中最新一代索引文件的代数，没有时返回-1 */
+		private static int currentGeneration(File directory, String name) {
+			int current = -1;
+			String[] files = directory.list();
+			if (files == null)
+				return current;
+			for (String file : files) {
+				int generation = generationOf(file, name);
+				if (generation > current && file.endsWith(".frames"))
+					current = generation;
+			}
+			return current;
+		}
+
+		/*
+		 * 缓存文件名中的代数，不是该图片库的缓存文件时返回-2，没有代数的旧版本文件返回-1
+		 */
+		private static int generationOf(String file, String name) {
+			if (!file.startsWith(name + ".") || file.equals(name + ".lock"))
+				return -2;
+			String rest = file.substring(name.length() + 1);
+			int dot = rest.indexOf('.');
+			if (dot <= 0)
+				return -1;
+			String[] parts = rest.split("\\.");
+			boolean frames = parts.length == 2 && parts[1].equals("frames")
+					|| parts.length == 3 && parts[1].equals("frames") && parts[2].equals("tmp");
+			if (!frames && !(parts.length == 3 && parts[2].equals("data")))
+				return -1;
+			try {
+				return Integer.parseInt(parts[0]);
+			} catch (NumberFormatException e) {
+				return -1;
+			}
+		}
+
+		/* 删除旧的一代缓存文件，仍被映射而无法删除的留到下次 */
+		private static void purge(File directory, String name, int current) {
+			String[] files = directory.list();
+			if (files == null)
+				return;
+			for (String file : files) {
+				int generation = generationOf(file, name);
+				if (generation != -2 && generation < current)
+					new File(directory, file).delete();
+			}
+		}
+
+		/* 缓存文件是否仍与图片库对应 */
+		boolean matches(File library, int imageCount, int segmentSize) {
+			return library.length() == libraryLength && library.lastModified() == libraryModified
+					&& imageCount == this.imageCount && segmentSize == this.segmentSize;
+		}
+
+		/* 获取数据段映射，已映射时不加锁 */
+		private MappedByteBuffer segment(int i, boolean create) throws IOException {
+			MappedByteBuffer[] mapped = segments;
+			if (i < mapped.length && mapped[i] != null)
+				return mapped[i];
+			return mapSegment(i, create);
+		}
+
+		/*
+		 * 映射数据段，create为false时文件不存在返回null<br>
+		 * 读取时不创建文件，已被重建删除的数据段不会被当作全0的数据读出
+		 */
+		private synchronized MappedByteBuffer mapSegment(int i, boolean create) throws IOException {
+			MappedByteBuffer[] mapped = segments;
+			if (i < mapped.length && mapped[i] != null)
+				return mapped[i];
+			if (!create && !segmentFile(generation, i).isFile())
+				return null;
+			MappedByteBuffer segment;
+			RandomAccessFile data = new RandomAccessFile(segmentFile(generation, i), "rw");
+			try {
+				if (data.length() < segmentSize)
+					data.setLength(segmentSize);
+				segment = data.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+			} finally {
+				data.close();
+			}
+			mapped = Arrays.copyOf(mapped, Math.max(mapped.length, i + 1));
+			mapped[i] = segment;
+			segments = mapped;
+			return segment;
+		}
+
+		/* 从缓存读取图片，未缓存时返回false */
+		boolean read(int i, byte[] sRGB, int off) throws IOException {
+			if (i < 0 || i >= imageCount)
+				return false;
+			int base = HEADER_SIZE + i * ENTRY_SIZE;
+			// acquire读取，之后读到的字段和图片数据不早于状态写入之前的内容
+			if ((int) INT_LE.getAcquire(index, base) != 1)
+				return false;
+			int segment = index.getInt(base + 4);
+			int offset = index.getInt(base + 8);
+			int length = index.getInt(base + 12);
+			if (segment < 0 || offset < 0 || length <= 0 || (long) offset + length > segmentSize)
+				return false;
+			if (off < 0 || sRGB.length - off < length)
+				throw new IllegalArgumentException("sRGB length not match width * height * 3 !!!");
+			MappedByteBuffer mapped = segment(segment, false);
+			if (mapped == null)
+				return false;
+			ByteBuffer data = mapped.duplicate();
+			data.position(offset);
+			data.get(sRGB, off, length);
+			return true;
+		}
+
+		/* 将解码后的图片追加到数据段并写入索引项 */
+		synchronized void write(int i, byte[] sRGB, int off, int length, int width, int height) throws IOException {
+			if (i < 0 || i >= imageCount || length <= 0 || length > segmentSize)
+				return;
+			int base = HEADER_SIZE + i * ENTRY_SIZE;
+			FileLock lock = raf.getChannel().lock();
+			try {
+				if (index.getInt(base) == 1)
+					return;
+				int segment = index.getInt(H_CURRENT_SEGMENT);
+				int position = index.getInt(H_WRITE_POSITION);
+				if ((long) position + length > segmentSize) {
+					segment++;
+					position = 0;
+				}
+				ByteBuffer data = segment(segment, true).duplicate();
+				data.position(position);
+				data.put(sRGB, off, length);
+				index.putInt(base + 4, segment);
+				index.putInt(base + 8, position);
+				index.putInt(base + 12, length);
+				index.putChar(base + 16, (char) width);
+				index.putChar(base + 18, (char) height);
+				// release写入，其他线程或进程读到有效状态时也能读到之前写入的字段和图片数据
+				INT_LE.setRelease(index, base, 1);
+				index.putInt(H_CURRENT_SEGMENT, segment);
+				index.putInt(H_WRITE_POSITION, position + length);
+			} finally {
+				lock.release();
+			}
+		}
+
+		/* 关闭索引文件，已映射的索引和数据段在没有引用后释放，正在进行的读取不受影响 */
+		void close() {
+			try {
+				raf.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+}
@@ -0,0 +1,66 @@
+package core.image;
+
+/*
+ * Copyright 2017 JOOTNET Project
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Support: https://github.com/jootnet/mir2.core
+ */
+
+import core.Texture;
+
+/**
+ * 解码后图片的缓存<br>
+ * 由{@link CachedImageLibrary}使用，一个缓存对象可以由多个图片库共享
+ *
+ * @author 云中双月
+ */
+public interface ImageCache {
+
+	/**
+	 * 从缓存获取图片，未缓存时从图片库解码并放入缓存
+	 *
+	 * @param library
+	 * 		图片库
+	 * @param index
+	 * 		图片索引
+	 * @return 图片数据，图片为空或解码失败时返回{@link Texture#EMPTY}
+	 */
+	Texture get(ImageLibrary library, int index);
+
+	/**
+	 * 从缓存复制图片色彩数据到给定数组，未缓存时从图片库解码并放入缓存<br>
+	 * 数据格式与{@link ImageLibrary#decodeInto(int, byte[], int)}一致
+	 *
+	 * @param library
+	 * 		图片库
+	 * @param index
+	 * 		图片索引
+	 * @param sRGB
+	 * 		存放色彩数据的数组
+	 * @param off
+	 * 		色彩数据在数组中的起始位置
+	 * @return true表示成功 false表示图片为空或解码失败
+	 * @throws IllegalArgumentException
+	 * 		数组剩余长度不足
+	 */
+	boolean decodeInto(ImageLibrary library, int index, byte[] sRGB, int off) throws IllegalArgumentException;
+
+	/**
+	 * 移除某个图片库的所有缓存图片
+	 *
+	 * @param library
+	 * 		图片库
+	 */
+	void invalidate(ImageLibrary library);
+}
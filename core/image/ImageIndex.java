@@ -0,0 +1,271 @@
+package core.image;
+
+/*
+ * Copyright 2017 JOOTNET Project
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Support: https://github.com/jootnet/mir2.core
+ */
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * 图片库中所有图片信息的紧凑存储<br>
+ * 每个字段使用一个基本类型数组按列存放，每张图片约占10字节，不再为每张图片创建{@link ImageInfo}对象<br>
+ * {@link ImageInfo}只在调用{@link #get(int)}时临时创建
+ *
+ * @author 云中双月
+ */
+final class ImageIndex {
+
+	/* 标志位：空图片 */
+	private static final byte FLAG_EMPTY = 1;
+	/* 标志位：WZL图片数据经过zlib压缩 */
+	private static final byte FLAG_WZL_COMPRESSED = 2;
+	/* 标志位：图片信息尚未读取 */
+	private static final byte FLAG_PENDING = 4;
+
+	private char[] widths;
+	private char[] heights;
+	private short[] offsetXs;
+	private short[] offsetYs;
+	private byte[] colorBits;
+	private byte[] flags;
+
+	/**
+	 * 创建指定数量的图片信息存储<br>
+	 * 所有图片初始为空图片
+	 *
+	 * @param count
+	 * 		图片数量
+	 */
+	ImageIndex(int count) {
+		widths = new char[count];
+		heights = new char[count];
+		offsetXs = new short[count];
+		offsetYs = new short[count];
+		colorBits = new byte[count];
+		flags = new byte[count];
+		Arrays.fill(colorBits, (byte) 8);
+		Arrays.fill(flags, (byte) (FLAG_EMPTY | FLAG_WZL_COMPRESSED));
+	}
+
+	/**
+	 * 获取存储的图片数量
+	 *
+	 * @return 图片数量
+	 */
+	int size() {
+		return flags.length;
+	}
+
+	/**
+	 * 调整存储的图片数量<br>
+	 * 新增的图片为宽高都为0的非空图片，与新建的{@link ImageInfo}一致
+	 *
+	 * @param count
+	 * 		新的图片数量
+	 */
+	void resize(int count) {
+		int oldCount = flags.length;
+		widths = Arrays.copyOf(widths, count);
+		heights = Arrays.copyOf(heights, count);
+		offsetXs = Arrays.copyOf(offsetXs, count);
+		offsetYs = Arrays.copyOf(offsetYs, count);
+		colorBits = Arrays.copyOf(colorBits, count);
+		flags = Arrays.copyOf(flags, count);
+		for (int i = oldCount; i < count; ++i) {
+			colorBits[i] = 8;
+			flags[i] = FLAG_WZL_COMPRESSED;
+		}
+	}
+
+	/**
+	 * 设置图片信息
+	 *
+	 * @param index
+	 * 		图片索引
+	 * @param colorBit
+	 * 		色深度
+	 * @param width
+	 * 		宽度
+	 * @param height
+	 * 		高度
+	 * @param offsetX
+	 * 		横向偏移
+	 * @param offsetY
+	 * 		纵向偏移
+	 */
+	void set(int index, int colorBit, int width, int height, short offsetX, short offsetY) {
+		widths[index] = (char) width;
+		heights[index] = (char) height;
+		offsetXs[index] = offsetX;
+		offsetYs[index] = offsetY;
+		colorBits[index] = (byte) colorBit;
+		flags[index] &= ~(FLAG_EMPTY | FLAG_PENDING);
+	}
+
+	/**
+	 * 将图片置为空图片
+	 *
+	 * @param index
+	 * 		图片索引
+	 */
+	void setEmpty(int index) {
+		widths[index] = 0;
+		heights[index] = 0;
+		offsetXs[index] = 0;
+		offsetYs[index] = 0;
+		colorBits[index] = 8;
+		flags[index] = FLAG_EMPTY | FLAG_WZL_COMPRESSED;
+	}
+
+	/**
+	 * 将图片标记为信息尚未读取<br>
+	 * 在调用{@link #set(int, int, int, int, short, short)}之前按空图片处理
+	 *
+	 * @param index
+	 * 		图片索引
+	 */
+	void setPending(int index) {
+		flags[index] |= FLAG_PENDING;
+	}
+
+	boolean isPending(int index) {
+		return (flags[index] & FLAG_PENDING) != 0;
+	}
+
+	void setWzlCompressed(int index, boolean wzlCompressed) {
+		if (wzlCompressed)
+			flags[index] |= FLAG_WZL_COMPRESSED;
+		else
+			flags[index] &= ~FLAG_WZL_COMPRESSED;
+	}
+
+	boolean isEmpty(int index) {
+		return (flags[index] & FLAG_EMPTY) != 0;
+	}
+
+	boolean wzlCompressed(int index) {
+		return (flags[index] & FLAG_WZL_COMPRESSED) != 0;
+	}
+
+	int width(int index) {
+		return widths[index];
+	}
+
+	int height(int index) {
+		return heights[index];
+	}
+
+	short offsetX(int index) {
+		return offsetXs[index];
+	}
+
+	short offsetY(int index) {
+		return offsetYs[index];
+	}
+
+	byte colorBit(int index) {
+		return colorBits[index];
+	}
+
+	/**
+	 * 获取图片信息<br>
+	 * 每次调用创建新的{@link ImageInfo}对象，空图片返回{@link ImageInfo#EMPTY}
+	 *
+	 * @param index
+	 * 		图片索引
+	 * @return 图片信息
+	 */
+	ImageInfo get(int index) {
+		if (isEmpty(index))
+			return ImageInfo.EMPTY;
+		ImageInfo ii = new ImageInfo();
+		ii.setColorBit(colorBits[index]);
+		ii.setWidth(widths[index]);
+		ii.setHeight(heights[index]);
+		ii.setOffsetX(offsetXs[index]);
+		ii.setOffsetY(offsetYs[index]);
+		ii.wzlCompressed = wzlCompressed(index);
+		return ii;
+	}
+
+	/**
+	 * 按列写入缓冲区所需的字节数
+	 *
+	 * @return 字节数
+	 */
+	int byteSize() {
+		return flags.length * 10;
+	}
+
+	/**
+	 * 将所有列依次写入缓冲区，缓冲区的字节序决定写入的字节序
+	 *
+	 * @param bb
+	 * 		目标缓冲区，位置向后推进{@link #byteSize()}字节
+	 */
+	void writeTo(ByteBuffer bb) {
+		int count = flags.length;
+		int pos = bb.position();
+		bb.asCharBuffer().put(widths);
+		bb.position(pos += count * 2);
+		bb.asCharBuffer().put(heights);
+		bb.position(pos += count * 2);
+		bb.asShortBuffer().put(offsetXs);
+		bb.position(pos += count * 2);
+		bb.asShortBuffer().put(offsetYs);
+		bb.position(pos += count * 2);
+		bb.put(colorBits);
+		bb.put(flags);
+	}
+
+	/**
+	 * 从缓冲区读取由{@link #writeTo(ByteBuffer)}写入的图片信息
+	 *
+	 * @param bb
+	 * 		数据缓冲区，位置向后推进读取的字节数
+	 * @param count
+	 * 		图片数量
+	 * @return 图片信息存储
+	 */
+	static ImageIndex readFrom(ByteBuffer bb, int count) {
+		ImageIndex index = new ImageIndex(count);
+		int pos = bb.position();
+		bb.asCharBuffer().get(index.widths);
+		bb.position(pos += count * 2);
+		bb.asCharBuffer().get(index.heights);
+		bb.position(pos += count * 2);
+		bb.asShortBuffer().get(index.offsetXs);
+		bb.position(pos += count * 2);
+		bb.asShortBuffer().get(index.offsetYs);
+		bb.position(pos += count * 2);
+		bb.get(index.colorBits);
+		bb.get(index.flags);
+		return index;
+	}
+
+	/**
+	 * 获取所有图片信息
+	 *
+	 * @return 新创建的图片信息数组
+	 */
+	ImageInfo[] toArray() {
+		ImageInfo[] infos = new ImageInfo[flags.length];
+		for (int i = 0; i < infos.length; ++i)
+			infos[i] = get(i);
+		return infos;
+	}
+}
@@ -18,23 +18,84 @@ package core.image;
  */
 
 
-import java.util.HashMap;
+import java.io.IOException;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import core.SDK;
 
 /**
- * 图片库管理工具类
+ * 图片库管理工具类<br>
+ * 不同图片库可以由多个线程同时加载，同一图片库只加载一次，其他请求同一图片库的线程等待加载结果<br>
+ * 已加载的图片库直接返回，不需要加锁<br>
+ * 缓存的图片库数量可以通过{@link #setCapacity(int)}限制，超出时关闭最久未使用的图片库，再次获取时重新加载，
+ * 因此调用方不应长期持有{@link #get(String, String)}返回的对象<br>
+ * 需要长期使用时通过{@link #acquire(String, String)}获取并在使用完毕后调用{@link #release(ImageLibrary)}，
+ * 这样获取的图片库被淘汰或移除后在全部释放时才关闭
  * 
  * @author 云中双月
  */
 public final class ImageLibraries {
 
-	private static Map<String, ImageLibrary> libraries = new HashMap<String, ImageLibrary>();
-	private static Object lib_locker = new Object();
+	private static ConcurrentMap<String, Entry> libraries = new ConcurrentHashMap<String, Entry>();
+	/* 最多缓存的图片库数量 */
+	private static volatile int capacity = Integer.MAX_VALUE;
+
+	/* 已加载的图片库对应的缓存项，用于释放 */
+	private static ConcurrentMap<ImageLibrary, Entry> loaded = new ConcurrentHashMap<ImageLibrary, Entry>();
+
+	/* 缓存项 */
+	private static final class Entry {
+		final FutureTask<ImageLibrary> task;
+		/* 最近一次获取的时间，用于淘汰最久未使用的图片库 */
+		volatile long lastAccess;
+		/* 引用数量，缓存本身持有1个，加载或等待加载的线程和每次acquire各持有1个，减到0时关闭图片库 */
+		final AtomicInteger refs = new AtomicInteger(2);
+
+		/* 新建的缓存项已包含缓存本身和创建线程的引用，放入缓存之前创建线程的引用就已存在 */
+		Entry(final String libPath) {
+			task = new FutureTask<ImageLibrary>(new Callable<ImageLibrary>() {
+				@Override
+				public ImageLibrary call() {
+					ImageLibrary lib = open(libPath);
+					if(lib != null)
+						loaded.put(lib, Entry.this);
+					return lib;
+				}
+			});
+		}
+
+		/* 增加引用，已关闭时返回false */
+		boolean acquire() {
+			while(true) {
+				int n = refs.get();
+				if(n == 0) return false;
+				if(refs.compareAndSet(n, n + 1)) return true;
+			}
+		}
+
+		/* 减少引用，最后一个引用释放时关闭图片库 */
+		void release() {
+			if(refs.decrementAndGet() == 0)
+				close(this);
+		}
+	}
+
+	/**
+	 * 是否使用索引缓存文件(图片库文件名加.idx)加速图片库打开<br>
+	 * 缓存有效时直接读取图片信息，不存在或源文件已修改时重新解析并写入缓存
+	 */
+	public volatile static boolean GLOBAL_INDEX_CACHE_MODE = false;
 	
 	/**
-	 * 从指定路径中解析出一个图片库并存入内存缓存
+	 * 从指定路径中解析出一个图片库并存入内存缓存<br>
+	 * 加载失败的图片库不会被缓存，下次调用时重新尝试<br>
+	 * 返回的图片库被淘汰或移除时关闭(通过{@link #acquire(String, String)}获取的调用方全部释放后)，不需要也不应释放
 	 * 
 	 * @param libName
 	 * 		图片库名称<br>
@@ -44,72 +105,206 @@ public final class ImageLibraries {
 	 * 		可以不带后缀，如果未给定后缀则会尝试多种可能
 	 * @return 图片库对象
 	 */
-	public static final ImageLibrary get(String libName, String libPath) {
-		synchronized (lib_locker) {
-			if(libraries.containsKey(libName))
-				return libraries.get(libName);
-			try{
-				if(SDK.hasFileExtension(libPath)) {
-					String ext = SDK.getFileExtension(libPath);
-					if(ext.equals("WIL")) {
-						WIL wil = new WIL(libPath);
-						if(wil.isLoaded()) {
-							libraries.put(libName, wil);
-							return wil;
-						}
-					}
-					if(ext.equals("WIS")) {
-						WIS wis = new WIS(libPath);
-						if(wis.isLoaded()) {
-							libraries.put(libName, wis);
-							return wis;
-						}
-					}
-					if(ext.equals("WZL")) {
-						WZL wzl = new WZL(libPath);
-						if(wzl.isLoaded()) {
-							libraries.put(libName, wzl);
-							return wzl;
-						}
-					}
-				} else {
-					String wzlPath = SDK.changeFileExtension(libPath, "wzl");
-					WZL wzl = new WZL(wzlPath);
-					if(wzl.isLoaded()) {
-						libraries.put(libName, wzl);
-						return wzl;
-					}
-					String wisPath = SDK.changeFileExtension(libPath, "wis");
-					WIS wis = new WIS(wisPath);
-					if(wis.isLoaded()) {
-						libraries.put(libName, wis);
-						return wis;
-					}
-					String wilPath = SDK.changeFileExtension(libPath, "wil");
-					WIL wil = new WIL(wilPath);
-					if(wil.isLoaded()) {
-						libraries.put(libName, wil);
-						return wil;
-					}
+	public static final ImageLibrary get(String libName, final String libPath) {
+		return load(libName, libPath, false);
+	}
+
+	/**
+	 * 与{@link #get(String, String)}相同，但在调用{@link #release(ImageLibrary)}之前图片库不会被关闭<br>
+	 * 图片库在此期间被淘汰或移除时从缓存中去掉，最后一次释放时关闭
+	 * 
+	 * @param libName
+	 * 		图片库名称<br>
+	 * 		用于系统缓存的key
+	 * @param libPath
+	 * 		图片库全路径<br>
+	 * 		可以不带后缀，如果未给定后缀则会尝试多种可能
+	 * @return 图片库对象，加载失败返回null，此时不需要释放
+	 */
+	public static final ImageLibrary acquire(String libName, final String libPath) {
+		return load(libName, libPath, true);
+	}
+
+	/**
+	 * 获取或加载图片库，等待期间持有引用，hold为true时返回后继续持有
+	 */
+	private static ImageLibrary load(String libName, String libPath, boolean hold) {
+		while(true) {
+			Entry entry = libraries.get(libName);
+			boolean load = false;
+			if(entry == null) {
+				Entry newEntry = new Entry(libPath);
+				entry = libraries.putIfAbsent(libName, newEntry);
+				if(entry == null) {
+					entry = newEntry;
+					load = true;
+				}
+			}
+			// 已被淘汰且关闭的缓存项不再使用，重新获取
+			if(!load && !entry.acquire()) continue;
+			entry.lastAccess = System.nanoTime();
+			if(load) {
+				// 由当前线程加载
+				entry.task.run();
+				evict(entry);
+			}
+			try {
+				ImageLibrary lib = entry.task.get();
+				if(lib == null) {
+					retire(libName, entry);
+					entry.release();
+				} else if(!hold) {
+					entry.release();
 				}
+				return lib;
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				entry.release();
 				return null;
-			}catch(RuntimeException ex) {
-				ex.printStackTrace();
+			} catch (ExecutionException ex) {
+				ex.getCause().printStackTrace();
+				retire(libName, entry);
+				entry.release();
 				return null;
 			}
 		}
 	}
+
+	/**
+	 * 释放通过{@link #acquire(String, String)}获取的图片库<br>
+	 * 图片库已被淘汰或移除且没有其他调用方使用时将其关闭；每次获取只应释放一次
+	 * 
+	 * @param lib
+	 * 		图片库对象，为null时忽略
+	 */
+	public static final void release(ImageLibrary lib) {
+		if(lib == null) return;
+		Entry entry = loaded.get(lib);
+		if(entry != null)
+			entry.release();
+	}
+
+	/* 从缓存中移除缓存项并释放缓存本身持有的引用 */
+	private static void retire(String libName, Entry entry) {
+		if(libraries.remove(libName, entry))
+			entry.release();
+	}
+
+	/**
+	 * 设置最多缓存的图片库数量<br>
+	 * 超出时移除并关闭最久未使用的图片库，通过{@link #acquire(String, String)}获取的在全部释放后关闭
+	 * 
+	 * @param capacity
+	 * 		图片库数量，默认不限制
+	 */
+	public static final void setCapacity(int capacity) {
+		if(capacity < 1)
+			throw new IllegalArgumentException("capacity must be positive !!!");
+		ImageLibraries.capacity = capacity;
+		evict(null);
+	}
+
+	/**
+	 * 缓存数量超出上限时移除最久未使用的已加载图片库
+	 * 
+	 * @param keep
+	 * 		不淘汰的缓存项，一般为刚加载的图片库
+	 */
+	private static void evict(Entry keep) {
+		while(libraries.size() > capacity) {
+			String victimName = null;
+			Entry victim = null;
+			for(Map.Entry<String, Entry> e : libraries.entrySet()) {
+				Entry candidate = e.getValue();
+				if(candidate == keep || !candidate.task.isDone()) continue;
+				if(victim == null || candidate.lastAccess - victim.lastAccess < 0) {
+					victimName = e.getKey();
+					victim = candidate;
+				}
+			}
+			if(victim == null) return;
+			retire(victimName, victim);
+		}
+	}
+
+	/**
+	 * 关闭已加载完成的图片库，只在最后一个引用释放时调用
+	 */
+	private static void close(Entry entry) {
+		try {
+			ImageLibrary lib = entry.task.get();
+			if(lib != null) {
+				loaded.remove(lib, entry);
+				lib.close();
+			}
+		} catch (ExecutionException ex) {
+			// 加载失败，没有需要关闭的对象
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		} catch (IOException ex) {
+			ex.printStackTrace();
+		}
+	}
+
+	/**
+	 * 从指定路径中解析出一个图片库，不放入缓存<br>
+	 * 返回的图片库由调用方负责关闭
+	 * 
+	 * @param libPath
+	 * 		图片库全路径<br>
+	 * 		后缀为wil、wzl或wis(不区分大小写)时按后缀解析；未给定后缀时依次尝试wzl、wis、wil
+	 * @return 图片库对象，加载失败返回null
+	 */
+	public static final ImageLibrary open(String libPath) {
+		try{
+			if(SDK.hasFileExtension(libPath)) {
+				String ext = SDK.getFileExtension(libPath);
+				if(ext.equals("WIL")) {
+					WIL wil = new WIL(libPath);
+					if(wil.isLoaded())
+						return wil;
+				}
+				if(ext.equals("WIS")) {
+					WIS wis = new WIS(libPath);
+					if(wis.isLoaded())
+						return wis;
+				}
+				if(ext.equals("WZL")) {
+					WZL wzl = new WZL(libPath);
+					if(wzl.isLoaded())
+						return wzl;
+				}
+			} else {
+				String wzlPath = SDK.changeFileExtension(libPath, "wzl");
+				WZL wzl = new WZL(wzlPath);
+				if(wzl.isLoaded())
+					return wzl;
+				String wisPath = SDK.changeFileExtension(libPath, "wis");
+				WIS wis = new WIS(wisPath);
+				if(wis.isLoaded())
+					return wis;
+				String wilPath = SDK.changeFileExtension(libPath, "wil");
+				WIL wil = new WIL(wilPath);
+				if(wil.isLoaded())
+					return wil;
+			}
+			return null;
+		}catch(RuntimeException ex) {
+			ex.printStackTrace();
+			return null;
+		}
+	}
 	
 	/**
-	 * 从缓存在系统的图片库集合中移除特定编号的图片库
+	 * 从缓存在系统的图片库集合中移除特定编号的图片库并将其关闭<br>
+	 * 正在加载或通过{@link #acquire(String, String)}获取的图片库在加载结束并全部释放后关闭
 	 * 
 	 * @param libName
 	 * 		图片库编号
 	 */
 	public static final void remove(String libName) {
-		synchronized (lib_locker) {
-			if(libraries.containsKey(libName))
-				libraries.remove(libName);
-		}
+		Entry entry = libraries.remove(libName);
+		if(entry != null)
+			entry.release();
 	}
 }
@@ -16,7 +16,10 @@
  */
 package core.image;
 
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import java.io.Closeable;
+import java.nio.ByteBuffer;
 
 import core.Texture;
 
@@ -43,6 +46,115 @@ public interface ImageLibrary extends Closeable {
 	 */
 	Texture tex(int index);
 	
+	/**
+	 * 将图片库中指定索引的图片解码到给定数组<br>
+	 * 每个像素以R G B三个byte存储，从图片左上角到右下角，与{@link Texture#getRGBs()}格式一致<br>
+	 * 解码过程使用线程独立的临时缓冲区，不创建新的图片数据，适合反复解码的场景
+	 * 
+	 * @param index
+	 * 		图片索引
+	 * @param sRGB
+	 * 		存放色彩数据的数组，从off开始至少需要宽度*高度*3个字节
+	 * @param off
+	 * 		色彩数据在数组中的起始位置
+	 * @return true表示解码成功 false表示图片为空或解码失败
+	 * @throws IllegalArgumentException
+	 * 		数组剩余长度不足
+	 */
+	boolean decodeInto(int index, byte[] sRGB, int off) throws IllegalArgumentException;
+	
+	/**
+	 * 将图片库中指定索引的图片以ARGB格式解码到给定数组<br>
+	 * 每个像素为一个int，从图片左上角到右下角，黑色(RGB均为0)作为透明色输出为0，其余像素Alpha为255<br>
+	 * 可直接解码到{@link BufferedImage#TYPE_INT_ARGB}图片的数据数组中，不再需要额外的透明色处理
+	 * 
+	 * @param index
+	 * 		图片索引
+	 * @param argb
+	 * 		存放色彩数据的数组，从off开始至少需要宽度*高度个元素
+	 * @param off
+	 * 		色彩数据在数组中的起始位置
+	 * @return true表示解码成功 false表示图片为空或解码失败
+	 * @throws IllegalArgumentException
+	 * 		数组剩余长度不足
+	 */
+	boolean decodeInto(int index, int[] argb, int off) throws IllegalArgumentException;
+	
+	/**
+	 * 将图片库中指定索引的8位图片的调色板索引复制到给定数组<br>
+	 * 每个像素一个byte，为{@link core.SDK#palletes}中的下标，从图片左上角到右下角，不做任何颜色转换<br>
+	 * 与{@link #decodeInto(int, int[], int)}一致，调色板中黑色的颜色作为透明色
+	 * 
+	 * @param index
+	 * 		图片索引
+	 * @param indices
+	 * 		存放调色板索引的数组，从off开始至少需要宽度*高度个字节
+	 * @param off
+	 * 		数据在数组中的起始位置
+	 * @return true表示成功 false表示图片为空、不是8位图片、图片库不支持或解码失败
+	 * @throws IllegalArgumentException
+	 * 		数组剩余长度不足
+	 */
+	default boolean decodeIndexedInto(int index, byte[] indices, int off) throws IllegalArgumentException {
+		return false;
+	}
+	
+	/**
+	 * 将图片库中指定索引的图片解码为{@link BufferedImage#TYPE_INT_ARGB}格式的图片<br>
+	 * 像素直接解码到图片数据数组中，黑色作为透明色<br>
+	 * 与{@link Texture#empty()}一致，宽或高不大于1的图片视为空图片
+	 * 
+	 * @param index
+	 * 		图片索引
+	 * @return 解码后的图片，图片为空或解码失败时返回null
+	 * 
+	 * @see #decodeInto(int, int[], int)
+	 */
+	default BufferedImage toBufferedImage(int index) {
+		ImageInfo ii = info(index);
+		if (ii == ImageInfo.EMPTY || ii.getWidth() <= 1 || ii.getHeight() <= 1)
+			return null;
+		BufferedImage image = new BufferedImage(ii.getWidth(), ii.getHeight(), BufferedImage.TYPE_INT_ARGB);
+		int[] argb = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+		if (!decodeInto(index, argb, 0))
+			return null;
+		return image;
+	}
+	
+	/**
+	 * 将图片库中指定索引的图片解码到给定缓冲区<br>
+	 * 数据格式与{@link #decodeInto(int, byte[], int)}一致，从缓冲区当前位置开始写入，成功时缓冲区位置向前推进宽度*高度*3个字节<br>
+	 * 非堆内缓冲区会先解码到线程独立的临时数组再整体复制
+	 * 
+	 * @param index
+	 * 		图片索引
+	 * @param sRGB
+	 * 		存放色彩数据的缓冲区
+	 * @return true表示解码成功 false表示图片为空或解码失败
+	 * @throws IllegalArgumentException
+	 * 		缓冲区剩余空间不足
+	 */
+	default boolean decodeInto(int index, ByteBuffer sRGB) throws IllegalArgumentException {
+		ImageInfo ii = info(index);
+		if (ii == ImageInfo.EMPTY)
+			return false;
+		int length = ii.getWidth() * ii.getHeight() * 3;
+		if (sRGB.remaining() < length)
+			throw new IllegalArgumentException("sRGB remaining not match width * height * 3 !!!");
+		if (sRGB.hasArray() && !sRGB.isReadOnly()) {
+			if (!decodeInto(index, sRGB.array(), sRGB.arrayOffset() + sRGB.position()))
+				return false;
+		} else {
+			byte[] rgb = DecodeBuffers.get().rgb(length);
+			if (!decodeInto(index, rgb, 0))
+				return false;
+			sRGB.put(rgb, 0, length);
+			return true;
+		}
+		sRGB.position(sRGB.position() + length);
+		return true;
+	}
+	
 	/**
 	 * 获取图片库中指定索引的图片信息
 	 * 
@@ -0,0 +1,228 @@
+package core.image;
+
+/*
+ * Copyright 2017 JOOTNET Project
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Support: https://github.com/jootnet/mir2.core
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * 图片库索引缓存<br>
+ * 将打开图片库时解析出的数据偏移、数据长度和图片信息保存到与图片库同目录的索引文件(图片库文件名加.idx)，
+ * 再次打开时通过一次内存映射读取，不再逐张解析图片信息<br>
+ * 索引文件记录了所有源文件的长度和修改时间，任一不一致即视为失效<br>
+ * 是否使用由{@link ImageLibraries#GLOBAL_INDEX_CACHE_MODE}控制
+ *
+ * @author 云中双月
+ */
+final class IndexCache {
+
+	/* 文件标识"MIDX" */
+	private static final int MAGIC = 0x5844494D;
+	private static final int VERSION = 1;
+
+	/* 解析方式标识 */
+	static final int MODE_WIL = 1;
+	static final int MODE_WIL_ONLY = 2;
+	static final int MODE_WZL = 3;
+	static final int MODE_WIS = 4;
+
+	/* 图片数据偏移 */
+	final long[] offsets;
+	/* 图片数据长度，格式不需要时长度为0 */
+	final int[] lengths;
+	/* 图片信息 */
+	final ImageIndex imageIndex;
+
+	private IndexCache(long[] offsets, int[] lengths, ImageIndex imageIndex) {
+		this.offsets = offsets;
+		this.lengths = lengths;
+		this.imageIndex = imageIndex;
+	}
+
+	/**
+	 * 获取图片库对应的索引文件
+	 *
+	 * @param library
+	 * 		图片库数据文件
+	 * @return 索引文件
+	 */
+	static File cacheFile(File library) {
+		return new File(library.getPath() + ".idx");
+	}
+
+	/**
+	 * 读取索引缓存
+	 *
+	 * @param sources
+	 * 		图片库相关的所有源文件，第一个为图片库数据文件
+	 * @param mode
+	 * 		解析方式标识，与保存时不一致视为失效
+	 * @return 缓存内容，未开启、不存在、已失效或损坏时返回null
+	 */
+	static IndexCache load(File[] sources, int mode) {
+		if (!ImageLibraries.GLOBAL_INDEX_CACHE_MODE)
+			return null;
+		File file = cacheFile(sources[0]);
+		if (!file.isFile())
+			return null;
+		RandomAccessFile raf = null;
+		try {
+			raf = new RandomAccessFile(file, "r");
+			ByteBuffer bb = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+			bb.order(ByteOrder.LITTLE_ENDIAN);
+			if (bb.getInt() != MAGIC || bb.getInt() != VERSION || bb.getInt() != mode)
+				return null;
+			if (bb.getInt() != sources.length)
+				return null;
+			for (File source : sources) {
+				if (bb.getLong() != source.length() || bb.getLong() != source.lastModified())
+					return null;
+			}
+			int offsetCount = bb.getInt();
+			int lengthCount = bb.getInt();
+			int imageCount = bb.getInt();
+			if (offsetCount < 0 || lengthCount < 0 || imageCount < 0
+					|| offsetCount * 8L + lengthCount * 4L + imageCount * 10L != bb.remaining())
+				return null;
+			if (!columnsMatch(mode, offsetCount, lengthCount, imageCount))
+				return null;
+			long[] offsets = new long[offsetCount];
+			int[] lengths = new int[lengthCount];
+			int pos = bb.position();
+			bb.asLongBuffer().get(offsets);
+			bb.position(pos += offsets.length * 8);
+			bb.asIntBuffer().get(lengths);
+			bb.position(pos += lengths.length * 4);
+			ImageIndex imageIndex = ImageIndex.readFrom(bb, imageCount);
+			return new IndexCache(offsets, lengths, imageIndex);
+		} catch (Exception e) {
+			// 损坏的索引文件按不存在处理，重新解析后会被覆盖
+			return null;
+		} finally {
+			if (raf != null) {
+				try {
+					raf.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+
+	/**
+	 * 检查各列长度是否符合解析方式<br>
+	 * WIL的偏移比图片多一项(最后一项为文件长度)且没有长度列，WZL和WIS的偏移、长度都与图片数量一致
+	 */
+	private static boolean columnsMatch(int mode, int offsetCount, int lengthCount, int imageCount) {
+		switch (mode) {
+		case MODE_WIL:
+		case MODE_WIL_ONLY:
+			return offsetCount == imageCount + 1 && lengthCount == 0;
+		case MODE_WZL:
+		case MODE_WIS:
+			return offsetCount == imageCount && lengthCount == imageCount;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * 以int数组形式获取图片数据偏移
+	 *
+	 * @return 新创建的偏移数组
+	 */
+	int[] intOffsets() {
+		int[] ints = new int[offsets.length];
+		for (int i = 0; i < ints.length; ++i)
+			ints[i] = (int) offsets[i];
+		return ints;
+	}
+
+	/**
+	 * 保存以int数组存放数据偏移的图片库的索引缓存
+	 *
+	 * @see #save(File[], int, long[], int[], ImageIndex)
+	 */
+	static void save(File[] sources, int mode, int[] offsets, int[] lengths, ImageIndex imageIndex) {
+		if (!ImageLibraries.GLOBAL_INDEX_CACHE_MODE)
+			return;
+		long[] longs = new long[offsets.length];
+		for (int i = 0; i < longs.length; ++i)
+			longs[i] = offsets[i];
+		save(sources, mode, longs, lengths, imageIndex);
+	}
+
+	/**
+	 * 保存索引缓存<br>
+	 * 先写入同目录下唯一命名的临时文件再替换，多个进程同时保存时不会读到不完整的文件<br>
+	 * 索引缓存只用于加速打开，无法写入(如目录只读)时直接放弃，不输出错误
+	 *
+	 * @param sources
+	 * 		图片库相关的所有源文件，第一个为图片库数据文件
+	 * @param mode
+	 * 		解析方式标识
+	 * @param offsets
+	 * 		图片数据偏移
+	 * @param lengths
+	 * 		图片数据长度，可以为长度为0的数组
+	 * @param imageIndex
+	 * 		图片信息
+	 */
+	static void save(File[] sources, int mode, long[] offsets, int[] lengths, ImageIndex imageIndex) {
+		if (!ImageLibraries.GLOBAL_INDEX_CACHE_MODE)
+			return;
+		File file = cacheFile(sources[0]);
+		File tmp = null;
+		try {
+			ByteBuffer bb = ByteBuffer.allocate(16 + sources.length * 16 + 12 + offsets.length * 8
+					+ lengths.length * 4 + imageIndex.byteSize());
+			bb.order(ByteOrder.LITTLE_ENDIAN);
+			bb.putInt(MAGIC).putInt(VERSION).putInt(mode).putInt(sources.length);
+			for (File source : sources)
+				bb.putLong(source.length()).putLong(source.lastModified());
+			bb.putInt(offsets.length).putInt(lengths.length).putInt(imageIndex.size());
+			int pos = bb.position();
+			bb.asLongBuffer().put(offsets);
+			bb.position(pos += offsets.length * 8);
+			bb.asIntBuffer().put(lengths);
+			bb.position(pos += lengths.length * 4);
+			imageIndex.writeTo(bb);
+			bb.flip();
+			tmp = Files.createTempFile(file.getAbsoluteFile().getParentFile().toPath(), file.getName(), ".tmp").toFile();
+			RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+			try {
+				raf.setLength(0);
+				FileChannel channel = raf.getChannel();
+				while (bb.hasRemaining())
+					channel.write(bb);
+			} finally {
+				raf.close();
+			}
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			if (tmp != null)
+				tmp.delete();
+		}
+	}
+}
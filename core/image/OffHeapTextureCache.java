@@ -0,0 +1,369 @@
+package core.image;
+
+/*
+ * Copyright 2017 JOOTNET Project
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Support: https://github.com/jootnet/mir2.core
+ */
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import core.Texture;
+
+/**
+ * 堆外内存中的解码图片缓存<br>
+ * 色彩数据存放在若干个固定大小的堆外缓冲区(slab)中，依次追加写入，写满所有slab后整体淘汰最早写入的slab并重新使用，
+ * 缓存的数据不占用堆内存，也不会被垃圾回收扫描<br>
+ * 即将被淘汰的slab中的图片再次被读取时会被复制到最新写入位置，经常使用的图片因此不会被淘汰<br>
+ * 读取时将数据复制到调用方的数组中，不返回缓存内存本身；大于一个slab的图片不缓存<br>
+ * 多个线程同时请求同一张未缓存的图片时只解码一次，其他线程等待后从缓存复制；解码期间图片库被{@link #invalidate(ImageLibrary)}时结果不再写入缓存<br>
+ * 堆外内存总量受JVM参数-XX:MaxDirectMemorySize限制
+ *
+ * @author 云中双月
+ */
+public final class OffHeapTextureCache implements ImageCache {
+
+	/* 默认slab大小 */
+	private static final int DEFAULT_SLAB_SIZE = 64 * 1024 * 1024;
+
+	/* 缓存项 */
+	private static final class Entry {
+		final CacheKey key;
+		final int slab;
+		final int offset;
+		final int length;
+		final int width;
+		final int height;
+
+		Entry(CacheKey key, int slab, int offset, int length, int width, int height) {
+			this.key = key;
+			this.slab = slab;
+			this.offset = offset;
+			this.length = length;
+			this.width = width;
+			this.height = height;
+		}
+	}
+
+	private final int slabSize;
+	/* 堆外缓冲区，首次使用时分配 */
+	private final ByteBuffer[] slabs;
+	/* 每个slab中存放的缓存项 */
+	private final List<List<Entry>> slabEntries;
+	private final HashMap<CacheKey, Entry> entries = new HashMap<CacheKey, Entry>();
+	/* 正在解码的图片，结果为是否解码成功 */
+	private final ConcurrentHashMap<CacheKey, FutureTask<Boolean>> loading = new ConcurrentHashMap<CacheKey, FutureTask<Boolean>>();
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+	/* 正在写入的slab，-1表示尚未写入 */
+	private int current = -1;
+	/* 正在写入的slab中的写入位置 */
+	private int writePosition;
+	private long size;
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+	private final AtomicLong evictionCount = new AtomicLong();
+
+	/**
+	 * 使用默认slab大小(64MB)创建堆外图片缓存
+	 *
+	 * @param capacity
+	 * 		缓存使用的堆外内存总字节数上限
+	 */
+	public OffHeapTextureCache(long capacity) {
+		this(capacity, (int) Math.min(DEFAULT_SLAB_SIZE, Math.max(capacity, 1)));
+	}
+
+	/**
+	 * 创建堆外图片缓存
+	 *
+	 * @param capacity
+	 * 		缓存使用的堆外内存总字节数上限，按slab大小向上取整
+	 * @param slabSize
+	 * 		每个堆外缓冲区的字节数，同时也是可缓存的最大图片数据长度
+	 */
+	public OffHeapTextureCache(long capacity, int slabSize) {
+		if (capacity <= 0 || slabSize <= 0)
+			throw new IllegalArgumentException("capacity and slabSize must be positive !!!");
+		long slabCount = (capacity + slabSize - 1) / slabSize;
+		if (slabCount > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("too many slabs !!!");
+		this.slabSize = slabSize;
+		this.slabs = new ByteBuffer[(int) slabCount];
+		this.slabEntries = new ArrayList<List<Entry>>(slabs.length);
+		for (int i = 0; i < slabs.length; ++i)
+			slabEntries.add(new ArrayList<Entry>());
+	}
+
+	public Texture get(ImageLibrary library, int index) {
+		ImageInfo ii = library.info(index);
+		if (ii == ImageInfo.EMPTY)
+			return Texture.EMPTY;
+		byte[] sRGB = new byte[ii.getWidth() * ii.getHeight() * 3];
+		if (!decodeInto(library, index, sRGB, 0))
+			return Texture.EMPTY;
+		return new Texture(sRGB, ii.getWidth(), ii.getHeight());
+	}
+
+	public boolean decodeInto(ImageLibrary library, int index, byte[] sRGB, int off) {
+		CacheKey key = new CacheKey(library, index);
+		if (read(key, sRGB, off))
+			return true;
+		FutureTask<Boolean> task = new Load(key, sRGB, off).task;
+		FutureTask<Boolean> other = loading.putIfAbsent(key, task);
+		if (other == null) {
+			missCount.incrementAndGet();
+			try {
+				task.run();
+				return task.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof RuntimeException)
+					throw (RuntimeException) e.getCause();
+				throw new IllegalStateException(e.getCause());
+			} finally {
+				loading.remove(key, task);
+			}
+		}
+		// 等待其他线程解码同一图片，解码成功后从缓存复制
+		try {
+			if (!other.get())
+				return false;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		} catch (ExecutionException e) {
+			// 由当前线程重新解码，错误按当前调用的参数报告
+		}
+		if (read(key, sRGB, off))
+			return true;
+		// 图片过大未缓存或已被淘汰、移除
+		return library.decodeInto(index, sRGB, off);
+	}
+
+	/* 由请求线程执行的一次解码，成功后以解码任务为owner写入缓存 */
+	private final class Load implements Callable<Boolean> {
+		final CacheKey key;
+		final byte[] sRGB;
+		final int off;
+		final FutureTask<Boolean> task = new FutureTask<Boolean>(this);
+
+		Load(CacheKey key, byte[] sRGB, int off) {
+			this.key = key;
+			this.sRGB = sRGB;
+			this.off = off;
+		}
+
+		public Boolean call() {
+			ImageLibrary library = key.library;
+			ImageInfo ii = library.info(key.index);
+			if (ii == ImageInfo.EMPTY || !library.decodeInto(key.index, sRGB, off))
+				return false;
+			put(key, task, sRGB, off, ii.getWidth() * ii.getHeight() * 3, ii.getWidth(), ii.getHeight());
+			return true;
+		}
+	}
+
+	/* 从缓存复制图片，未缓存时返回false；图片位于即将被淘汰的slab时复制到最新写入位置 */
+	private boolean read(CacheKey key, byte[] sRGB, int off) {
+		Entry entry;
+		boolean promote = false;
+		lock.readLock().lock();
+		try {
+			entry = entries.get(key);
+			if (entry == null)
+				return false;
+			if (off < 0 || sRGB.length - off < entry.length)
+				throw new IllegalArgumentException("sRGB length not match width * height * 3 !!!");
+			ByteBuffer slab = slabs[entry.slab].duplicate();
+			slab.position(entry.offset);
+			slab.get(sRGB, off, entry.length);
+			promote = slabs.length > 1 && entry.slab == nextSlab();
+		} finally {
+			lock.readLock().unlock();
+		}
+		hitCount.incrementAndGet();
+		if (promote)
+			put(key, entry, sRGB, off, entry.length, entry.width, entry.height);
+		return true;
+	}
+
+	/* 下一个将被写入(也就是将被淘汰)的slab */
+	private int nextSlab() {
+		return (current + 1) % slabs.length;
+	}
+
+	/**
+	 * 将色彩数据写入堆外缓冲区，已有的同一图片的缓存项被替换<br>
+	 * owner为被复制的缓存项或解码任务，已不在缓存或解码任务表中(期间被淘汰、{@link #invalidate(ImageLibrary)}或{@link #clear()})时不写入
+	 */
+	private void put(CacheKey key, Object owner, byte[] sRGB, int off, int length, int width, int height) {
+		if (owner == null || length > slabSize || length == 0)
+			return;
+		lock.writeLock().lock();
+		try {
+			if (owner != entries.get(key) && owner != loading.get(key))
+				return;
+			Entry old = entries.remove(key);
+			if (old != null)
+				size -= old.length;
+			if (current < 0 || writePosition + length > slabSize)
+				advance();
+			ByteBuffer slab = slabs[current].duplicate();
+			slab.position(writePosition);
+			slab.put(sRGB, off, length);
+			Entry entry = new Entry(key, current, writePosition, length, width, height);
+			entries.put(key, entry);
+			slabEntries.get(current).add(entry);
+			writePosition += length;
+			size += length;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/* 切换到下一个slab，淘汰其中仍有效的缓存项 */
+	private void advance() {
+		current = nextSlab();
+		writePosition = 0;
+		if (slabs[current] == null)
+			slabs[current] = ByteBuffer.allocateDirect(slabSize);
+		List<Entry> evicted = slabEntries.get(current);
+		for (Entry entry : evicted) {
+			if (entries.get(entry.key) == entry) {
+				entries.remove(entry.key);
+				size -= entry.length;
+				evictionCount.incrementAndGet();
+			}
+		}
+		evicted.clear();
+	}
+
+	public void invalidate(ImageLibrary library) {
+		lock.writeLock().lock();
+		try {
+			Iterator<Entry> it = entries.values().iterator();
+			while (it.hasNext()) {
+				Entry entry = it.next();
+				if (entry.key.library == library) {
+					it.remove();
+					size -= entry.length;
+				}
+			}
+			// 正在解码的结果不再写入
+			Iterator<CacheKey> loadingIt = loading.keySet().iterator();
+			while (loadingIt.hasNext()) {
+				if (loadingIt.next().library == library)
+					loadingIt.remove();
+			}
+			// slab中的记录也一并移除，不再引用已关闭的图片库
+			for (List<Entry> list : slabEntries) {
+				Iterator<Entry> listIt = list.iterator();
+				while (listIt.hasNext()) {
+					if (listIt.next().key.library == library)
+						listIt.remove();
+				}
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * 清空缓存并释放所有堆外缓冲区的引用，统计数据保留
+	 */
+	public void clear() {
+		lock.writeLock().lock();
+		try {
+			entries.clear();
+			loading.clear();
+			for (int i = 0; i < slabs.length; ++i) {
+				slabs[i] = null;
+				slabEntries.get(i).clear();
+			}
+			current = -1;
+			writePosition = 0;
+			size = 0;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * 获取缓存使用的堆外内存总字节数上限
+	 *
+	 * @return 字节数
+	 */
+	public long getCapacity() {
+		return (long) slabs.length * slabSize;
+	}
+
+	/**
+	 * 获取当前有效缓存项的色彩数据总字节数
+	 *
+	 * @return 字节数
+	 */
+	public long getSize() {
+		lock.readLock().lock();
+		try {
+			return size;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * 获取命中次数
+	 *
+	 * @return 命中次数
+	 */
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	/**
+	 * 获取未命中(需要解码)次数
+	 *
+	 * @return 未命中次数
+	 */
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	/**
+	 * 获取因slab被重新使用而淘汰的图片数量
+	 *
+	 * @return 淘汰数量
+	 */
+	public long getEvictionCount() {
+		return evictionCount.get();
+	}
+
+	@Override
+	public String toString() {
+		return "OffHeapTextureCache[size=" + getSize() + "/" + getCapacity() + ", hit=" + hitCount.get() + ", miss="
+				+ missCount.get() + ", eviction=" + evictionCount.get() + "]";
+	}
+}
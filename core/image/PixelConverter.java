@@ -0,0 +1,238 @@
+package core.image;
+
+/*
+ * Copyright 2017 JOOTNET Project
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Support: https://github.com/jootnet/mir2.core
+ */
+
+import java.util.Arrays;
+
+import core.SDK;
+
+/**
+ * 像素格式转换<br>
+ * 以行为单位将8位调色板索引或16位RGB565数据转换为RGB/ARGB，行内循环不含分支，便于JIT展开<br>
+ * 调色板使用{@link SDK#palletesTransparent}，16位色使用{@link SDK#rgb565Transparent}
+ *
+ * @author 云中双月
+ */
+final class PixelConverter {
+
+	private PixelConverter() {
+	}
+
+	/**
+	 * 将BMP格式(自下而上，每行4字节对齐)的8位或16位像素数据转换为RGB<br>
+	 * 与库中原有的读取方式一致，每行的填充字节位于行首
+	 *
+	 * @param pixels
+	 * 		像素数据
+	 * @param bit
+	 * 		色深度，8或16
+	 * @param width
+	 * 		图片宽度
+	 * @param height
+	 * 		图片高度
+	 * @param sRGB
+	 * 		存放结果的数组，从左上角到右下角，每个像素3个字节
+	 * @param off
+	 * 		结果在数组中的起始位置
+	 */
+	static void bmpToRGB(byte[] pixels, int bit, int width, int height, byte[] sRGB, int off) {
+		int stride = SDK.widthBytes(bit * width);
+		int rowBytes = width * 3;
+		// 行首的填充字节
+		int src = SDK.skipBytes(bit, width);
+		int dst = off + (height - 1) * rowBytes;
+		for (int h = 0; h < height; ++h, src += stride, dst -= rowBytes) {
+			if (bit == 8)
+				indexedToRGB(pixels, src, sRGB, dst, width);
+			else
+				rgb565ToRGB(pixels, src, sRGB, dst, width);
+		}
+	}
+
+	/**
+	 * 将BMP格式(自下而上，每行4字节对齐)的8位或16位像素数据转换为ARGB，黑色透明
+	 *
+	 * @param pixels
+	 * 		像素数据
+	 * @param bit
+	 * 		色深度，8或16
+	 * @param width
+	 * 		图片宽度
+	 * @param height
+	 * 		图片高度
+	 * @param argb
+	 * 		存放结果的数组，从左上角到右下角，每个像素一个int
+	 * @param off
+	 * 		结果在数组中的起始位置
+	 */
+	static void bmpToARGB(byte[] pixels, int bit, int width, int height, int[] argb, int off) {
+		int stride = SDK.widthBytes(bit * width);
+		// 行首的填充字节
+		int src = SDK.skipBytes(bit, width);
+		int dst = off + (height - 1) * width;
+		for (int h = 0; h < height; ++h, src += stride, dst -= width) {
+			if (bit == 8)
+				indexedToARGB(pixels, src, argb, dst, width);
+			else
+				rgb565ToARGB(pixels, src, argb, dst, width);
+		}
+	}
+
+	/**
+	 * 将BMP格式(自下而上，每行4字节对齐)的8位像素数据复制为自上而下、无填充的调色板索引
+	 *
+	 * @param pixels
+	 * 		像素数据
+	 * @param width
+	 * 		图片宽度
+	 * @param height
+	 * 		图片高度
+	 * @param indices
+	 * 		存放结果的数组，从左上角到右下角，每个像素一个字节
+	 * @param off
+	 * 		结果在数组中的起始位置
+	 */
+	static void bmpToIndexed(byte[] pixels, int width, int height, byte[] indices, int off) {
+		int stride = SDK.widthBytes(8 * width);
+		// 行首的填充字节
+		int src = SDK.skipBytes(8, width);
+		int dst = off + (height - 1) * width;
+		for (int h = 0; h < height; ++h, src += stride, dst -= width)
+			System.arraycopy(pixels, src, indices, dst, width);
+	}
+
+	/**
+	 * 将连续的8位调色板索引转换为RGB
+	 *
+	 * @param src
+	 * 		调色板索引数据
+	 * @param srcPos
+	 * 		索引数据起始位置
+	 * @param sRGB
+	 * 		存放结果的数组
+	 * @param dstPos
+	 * 		结果起始位置
+	 * @param count
+	 * 		像素个数
+	 */
+	static void indexedToRGB(byte[] src, int srcPos, byte[] sRGB, int dstPos, int count) {
+		int[] pallete = SDK.palletesTransparent;
+		for (int i = 0; i < count; ++i, dstPos += 3) {
+			int rgb = pallete[src[srcPos + i] & 0xff];
+			sRGB[dstPos] = (byte) (rgb >> 16);
+			sRGB[dstPos + 1] = (byte) (rgb >> 8);
+			sRGB[dstPos + 2] = (byte) rgb;
+		}
+	}
+
+	/**
+	 * 将连续的8位调色板索引转换为ARGB，黑色透明
+	 *
+	 * @param src
+	 * 		调色板索引数据
+	 * @param srcPos
+	 * 		索引数据起始位置
+	 * @param argb
+	 * 		存放结果的数组
+	 * @param dstPos
+	 * 		结果起始位置
+	 * @param count
+	 * 		像素个数
+	 */
+	static void indexedToARGB(byte[] src, int srcPos, int[] argb, int dstPos, int count) {
+		int[] pallete = SDK.palletesTransparent;
+		for (int i = 0; i < count; ++i)
+			argb[dstPos + i] = pallete[src[srcPos + i] & 0xff];
+	}
+
+	/**
+	 * 以同一颜色填充连续的RGB像素
+	 *
+	 * @param sRGB
+	 * 		存放结果的数组
+	 * @param dstPos
+	 * 		起始位置
+	 * @param count
+	 * 		像素个数
+	 * @param rgb
+	 * 		颜色
+	 */
+	static void fillRGB(byte[] sRGB, int dstPos, int count, int rgb) {
+		if (count <= 0)
+			return;
+		byte r = (byte) (rgb >> 16), g = (byte) (rgb >> 8), b = (byte) rgb;
+		if (r == g && g == b) {
+			Arrays.fill(sRGB, dstPos, dstPos + count * 3, r);
+			return;
+		}
+		sRGB[dstPos] = r;
+		sRGB[dstPos + 1] = g;
+		sRGB[dstPos + 2] = b;
+		// 已填充部分成倍复制
+		int filled = 3, total = count * 3;
+		while (filled < total) {
+			int n = Math.min(filled, total - filled);
+			System.arraycopy(sRGB, dstPos, sRGB, dstPos + filled, n);
+			filled += n;
+		}
+	}
+
+	/**
+	 * 将连续的16位RGB565数据(Little-Endian)转换为RGB
+	 *
+	 * @param src
+	 * 		RGB565数据
+	 * @param srcPos
+	 * 		数据起始位置(字节)
+	 * @param sRGB
+	 * 		存放结果的数组
+	 * @param dstPos
+	 * 		结果起始位置
+	 * @param count
+	 * 		像素个数
+	 */
+	static void rgb565ToRGB(byte[] src, int srcPos, byte[] sRGB, int dstPos, int count) {
+		int[] lut = SDK.rgb565Transparent;
+		for (int i = 0; i < count; ++i, srcPos += 2, dstPos += 3) {
+			int rgb = lut[(src[srcPos] & 0xff) | ((src[srcPos + 1] & 0xff) << 8)];
+			sRGB[dstPos] = (byte) (rgb >> 16);
+			sRGB[dstPos + 1] = (byte) (rgb >> 8);
+			sRGB[dstPos + 2] = (byte) rgb;
+		}
+	}
+
+	/**
+	 * 将连续的16位RGB565数据(Little-Endian)转换为ARGB，黑色透明
+	 *
+	 * @param src
+	 * 		RGB565数据
+	 * @param srcPos
+	 * 		数据起始位置(字节)
+	 * @param argb
+	 * 		存放结果的数组
+	 * @param dstPos
+	 * 		结果起始位置
+	 * @param count
+	 * 		像素个数
+	 */
+	static void rgb565ToARGB(byte[] src, int srcPos, int[] argb, int dstPos, int count) {
+		int[] lut = SDK.rgb565Transparent;
+		for (int i = 0; i < count; ++i, srcPos += 2)
+			argb[dstPos + i] = lut[(src[srcPos] & 0xff) | ((src[srcPos + 1] & 0xff) << 8)];
+	}
+}
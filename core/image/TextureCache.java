@@ -0,0 +1,248 @@
+package core.image;
+
+/*
+ * Copyright 2017 JOOTNET Project
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Support: https://github.com/jootnet/mir2.core
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import core.Texture;
+
+/**
+ * 解码后图片的内存缓存<br>
+ * 以图片色彩数据的字节数计算占用，总占用超出上限时淘汰最久未使用的图片，一次淘汰到上限的7/8，避免每次加入新图片都进行淘汰<br>
+ * 查找不加锁，命中时只记录访问时间；只有加入新图片、淘汰和{@link #invalidate(ImageLibrary)}需要加锁<br>
+ * 多个线程同时请求同一张未缓存的图片时只解码一次，其他线程等待解码结果<br>
+ * 一个缓存对象可以由多个{@link CachedImageLibrary}共享，此时上限作用于所有图片库<br>
+ * 缓存的{@link Texture}被多个调用方共享，不应修改其色彩数据
+ *
+ * @author 云中双月
+ */
+public final class TextureCache implements ImageCache {
+
+	/* 缓存项，解码完成并计入占用前weight为0 */
+	private static final class Node {
+		final CacheKey key;
+		final FutureTask<Texture> task;
+		/* 最近一次访问的时间，用于淘汰最久未使用的图片 */
+		volatile long lastAccess;
+		long weight;
+
+		Node(CacheKey key, FutureTask<Texture> task) {
+			this.key = key;
+			this.task = task;
+			this.lastAccess = System.nanoTime();
+		}
+	}
+
+	/* 按最近访问时间从早到晚排序 */
+	private static final Comparator<Node> BY_ACCESS = new Comparator<Node>() {
+		public int compare(Node a, Node b) {
+			long d = a.lastAccess - b.lastAccess;
+			return d < 0 ? -1 : (d > 0 ? 1 : 0);
+		}
+	};
+
+	private final long capacity;
+	private final ConcurrentHashMap<CacheKey, Node> nodes = new ConcurrentHashMap<CacheKey, Node>(256);
+	/* 占用统计和淘汰锁 */
+	private final Object cache_locker = new Object();
+	private long size;
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+	private long evictionCount;
+
+	/**
+	 * 创建图片缓存
+	 *
+	 * @param capacity
+	 * 		缓存图片色彩数据的总字节数上限
+	 */
+	public TextureCache(long capacity) {
+		if (capacity < 0)
+			throw new IllegalArgumentException("capacity must not be negative !!!");
+		this.capacity = capacity;
+	}
+
+	/**
+	 * {@inheritDoc}<br>
+	 * 空图片和解码失败的图片不缓存
+	 */
+	public Texture get(final ImageLibrary library, final int index) {
+		CacheKey key = new CacheKey(library, index);
+		Node node = nodes.get(key);
+		boolean load = false;
+		if (node == null) {
+			Node newNode = new Node(key, new FutureTask<Texture>(new Callable<Texture>() {
+				@Override
+				public Texture call() {
+					return library.tex(index);
+				}
+			}));
+			node = nodes.putIfAbsent(key, newNode);
+			if (node == null) {
+				node = newNode;
+				load = true;
+			}
+		}
+		if (load) {
+			missCount.incrementAndGet();
+			node.task.run();
+		} else {
+			hitCount.incrementAndGet();
+			node.lastAccess = System.nanoTime();
+		}
+		Texture tex;
+		try {
+			tex = node.task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return Texture.EMPTY;
+		} catch (ExecutionException e) {
+			e.getCause().printStackTrace();
+			tex = null;
+		}
+		if (load) {
+			if (tex == null || tex.empty()) {
+				nodes.remove(key, node);
+			} else {
+				synchronized (cache_locker) {
+					// 解码期间已被移除(invalidate或clear)的不再计入
+					if (nodes.get(key) == node) {
+						node.weight = tex.getRGBs().length;
+						size += node.weight;
+						if (size > capacity)
+							evict();
+					}
+				}
+			}
+		}
+		return tex == null ? Texture.EMPTY : tex;
+	}
+
+	public boolean decodeInto(ImageLibrary library, int index, byte[] sRGB, int off) {
+		Texture tex = get(library, index);
+		if (tex == Texture.EMPTY)
+			return false;
+		byte[] pixels = tex.getRGBs();
+		if (off < 0 || sRGB.length - off < pixels.length)
+			throw new IllegalArgumentException("sRGB length not match width * height * 3 !!!");
+		System.arraycopy(pixels, 0, sRGB, off, pixels.length);
+		return true;
+	}
+
+	/* 从最久未使用的图片开始淘汰，直到总占用不超过上限的7/8，调用时持有cache_locker */
+	private void evict() {
+		List<Node> accounted = new ArrayList<Node>(nodes.size());
+		for (Node node : nodes.values()) {
+			if (node.weight > 0)
+				accounted.add(node);
+		}
+		Collections.sort(accounted, BY_ACCESS);
+		long target = capacity - capacity / 8;
+		for (int i = 0; i < accounted.size() && size > target; ++i) {
+			Node node = accounted.get(i);
+			if (nodes.remove(node.key, node)) {
+				size -= node.weight;
+				evictionCount++;
+			}
+		}
+	}
+
+	public void invalidate(ImageLibrary library) {
+		synchronized (cache_locker) {
+			for (Node node : nodes.values()) {
+				if (node.key.library == library && nodes.remove(node.key, node))
+					size -= node.weight;
+			}
+		}
+	}
+
+	/**
+	 * 清空缓存，统计数据保留
+	 */
+	public void clear() {
+		synchronized (cache_locker) {
+			nodes.clear();
+			size = 0;
+		}
+	}
+
+	/**
+	 * 获取缓存总字节数上限
+	 *
+	 * @return 字节数
+	 */
+	public long getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * 获取当前缓存的图片色彩数据总字节数
+	 *
+	 * @return 字节数
+	 */
+	public long getSize() {
+		synchronized (cache_locker) {
+			return size;
+		}
+	}
+
+	/**
+	 * 获取命中次数，包括等待其他线程解码同一图片的请求
+	 *
+	 * @return 命中次数
+	 */
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	/**
+	 * 获取未命中(需要解码)次数
+	 *
+	 * @return 未命中次数
+	 */
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	/**
+	 * 获取因超出上限被淘汰的图片数量
+	 *
+	 * @return 淘汰数量
+	 */
+	public long getEvictionCount() {
+		synchronized (cache_locker) {
+			return evictionCount;
+		}
+	}
+
+	@Override
+	public String toString() {
+		synchronized (cache_locker) {
+			return "TextureCache[size=" + size + "/" + capacity + ", count=" + nodes.size() + ", hit=" + hitCount.get()
+					+ ", miss=" + missCount.get() + ", eviction=" + evictionCount + "]";
+		}
+	}
+}
@@ -20,8 +20,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
+import java.util.Arrays;
 import java.util.Random;
 
 import core.BinaryReader;
@@ -211,19 +210,21 @@ public final class WIL implements WriteableImageLibrary {
 	 */
 	/* 图片数据起始位置 */
 	private int[] offsetList;
-	private ImageInfo[] imageInfos;
+	/* 图片信息，按列存储 */
+	private ImageIndex imageIndex;
 
 	/**
-	 * 获取库中图片信息数组
+	 * 获取库中图片信息数组<br>
+	 * 每次调用都会创建新的数组
 	 * 
 	 * @return 所有存在于当前WIL库中的图片信息数组
 	 */
 	ImageInfo[] getImageInfos() {
-		return imageInfos;
+		return imageIndex.toArray();
 	}
 
-	/* WIL文件随机读取对象 */
-	private BinaryReader br_wil;
+	/* WIL文件随机读取对象，图片数据通过无游标的定位读取获得，读取时无需加锁 */
+	private volatile BinaryReader br_wil;
 	/* 临时文件夹 */
 	private File tmp_wil_dir;
 	private volatile boolean loaded;
@@ -237,7 +238,7 @@ public final class WIL implements WriteableImageLibrary {
 		return loaded;
 	}
 
-	/* 文件指针读取锁 */
+	/* 关闭锁，图片读取使用定位读取，不需要加锁 */
 	private Object wil_locker = new Object();
 
 	public WIL(String wilPath) {
@@ -259,7 +260,7 @@ public final class WIL implements WriteableImageLibrary {
 				return;
 			if (!wilOnlyMode && !f_wix.canRead())
 				return;
-			br_wil = new BinaryReader(f_wil);
+			br_wil = new BinaryReader(f_wil, true);
 			br_wil.skipBytes(44); // 跳过标题
 			imageCount = br_wil.readIntLE(); // 图片数量
 			offsetList = new int[imageCount + 1];
@@ -270,32 +271,39 @@ public final class WIL implements WriteableImageLibrary {
 				br_wil.skipBytes(4); // 忽略调色板
 				// verFlag = br_wil.readIntLE();
 			}
+			File[] sources = wilOnlyMode ? new File[] { f_wil } : new File[] { f_wil, f_wix };
+			int cacheMode = wilOnlyMode ? IndexCache.MODE_WIL_ONLY : IndexCache.MODE_WIL;
+			IndexCache cache = IndexCache.load(sources, cacheMode);
+			if (cache != null && cache.offsets.length == imageCount + 1) {
+				offsetList = cache.intOffsets();
+				imageIndex = cache.imageIndex;
+				loaded = true;
+				return;
+			}
 			if (!wilOnlyMode) {
 				BinaryReader br_wix = new BinaryReader(f_wix);
 				br_wix.skipBytes(44); // 跳过标题
 				int indexCount = br_wix.readIntLE(); // 索引数量(也是图片数量)
 				// if(verFlag != 0)
 				// br_wix.skipBytes(4); // 版本标识不为0需要跳过4字节
-				for (int i = 0; i < indexCount; ++i) {
-					// 读取数据偏移量
-					offsetList[i] = br_wix.readIntLE();
-				}
+				// 读取数据偏移量
+				br_wix.readIntsLE(offsetList, 0, Math.min(indexCount, imageCount));
 				br_wix.close();
 			} else {
-				imageInfos = new ImageInfo[imageCount];
+				imageIndex = new ImageIndex(imageCount);
 				int lastOffset = 1024 + 4 + 4 + 4 + 44;
 				for (int i = 0; i < imageCount; ++i) {
 					offsetList[i] = lastOffset;
 					if (bitCount == 8) {
 						if (lastOffset + 9 > br_wil.length()) {
 							// 数据出错，直接赋值为空图片
-							imageInfos[i] = ImageInfo.EMPTY;
+							imageIndex.setEmpty(i);
 							continue;
 						}
 					} else {
 						if (lastOffset + 12 > br_wil.length()) {
 							// 数据出错，直接赋值为空图片
-							imageInfos[i] = ImageInfo.EMPTY;
+							imageIndex.setEmpty(i);
 							continue;
 						}
 					}
@@ -310,45 +318,37 @@ public final class WIL implements WriteableImageLibrary {
 						} else {
 							lastOffset += 4;
 						}
-						imageInfos[i] = ImageInfo.EMPTY;
+						imageIndex.setEmpty(i);
 						continue;
 					}
-					ImageInfo ii = new ImageInfo();
-					ii.setColorBit((byte) bitCount);
-					ii.setWidth(w);
-					ii.setHeight(h);
-					ii.setOffsetX(br_wil.readShortLE());
-					ii.setOffsetY(br_wil.readShortLE());
-					imageInfos[i] = ii;
+					imageIndex.set(i, bitCount, w, h, br_wil.readShortLE(), br_wil.readShortLE());
 					lastOffset += SDK.widthBytes(bitCount * w) * h;
 				}
+				IndexCache.save(sources, cacheMode, offsetList, new int[0], imageIndex);
 				loaded = true;
 				return;
 			}
-			imageInfos = new ImageInfo[imageCount];
+			imageIndex = new ImageIndex(imageCount);
 			for (int i = 0; i < imageCount; ++i) {
 				int offset = offsetList[i];
 				if (offset + 9 > br_wil.length()) {
 					// 数据出错，直接赋值为空图片
-					imageInfos[i] = ImageInfo.EMPTY;
+					imageIndex.setEmpty(i);
 					continue;
 				}
 				int length = offsetList[i + 1] - offset - 8;
 				if (length < 2) {
 					// WIL中色彩数据为1个字节的是空图片，此时图片大小为1x1
-					imageInfos[i] = ImageInfo.EMPTY;
+					imageIndex.setEmpty(i);
 					continue;
 				}
 				// 读取图片信息
-				ImageInfo ii = new ImageInfo();
-				ii.setColorBit((byte) bitCount);
 				br_wil.seek(offset);
-				ii.setWidth((short) br_wil.readUnsignedShortLE());
-				ii.setHeight((short) br_wil.readUnsignedShortLE());
-				ii.setOffsetX(br_wil.readShortLE());
-				ii.setOffsetY(br_wil.readShortLE());
-				imageInfos[i] = ii;
+				int w = br_wil.readUnsignedShortLE();
+				int h = br_wil.readUnsignedShortLE();
+				imageIndex.set(i, bitCount, w, h, br_wil.readShortLE(), br_wil.readShortLE());
 			}
+			IndexCache.save(sources, cacheMode, offsetList, new int[0], imageIndex);
 			loaded = true;
 		} catch (Exception e) {
 			e.printStackTrace();
@@ -364,7 +364,7 @@ public final class WIL implements WriteableImageLibrary {
 	 */
 	public final void close() throws IOException {
 		offsetList = null;
-		imageInfos = null;
+		imageIndex = null;
 		loaded = false;
 		synchronized (wil_locker) {
 			if (br_wil != null) {
@@ -375,92 +375,154 @@ public final class WIL implements WriteableImageLibrary {
 		}
 	}
 
-	public synchronized final Texture tex(int index) {
+	public final Texture tex(int index) {
 		if (!loaded)
 			return Texture.EMPTY;
 		if (index < 0)
 			return Texture.EMPTY;
 		if (index >= imageCount)
 			return Texture.EMPTY;
-		if (imageInfos[index] == ImageInfo.EMPTY)
+		if (imageIndex.isEmpty(index))
+			return Texture.EMPTY;
+		int width = imageIndex.width(index);
+		int height = imageIndex.height(index);
+		// 损坏的宽高不分配数组
+		if (width <= 0 || height <= 0 || (long) width * height * 3 > Integer.MAX_VALUE)
 			return Texture.EMPTY;
 		try {
-			ImageInfo ii = imageInfos[index];
-			byte[] pixels = null;
-			if (tmp_wil_dir != null) {
-				File ftmpimg = new File(tmp_wil_dir.getAbsolutePath() + File.separator + index);
-				if (ftmpimg.exists()) {
-					FileInputStream fis = new FileInputStream(ftmpimg);
-					pixels = new byte[fis.available()];
-					fis.read(pixels);
-					fis.close();
-				}
-			}
-			if (pixels == null) {
-				synchronized (wil_locker) {
-					br_wil.seek(offsetList[index] + 8);
-					int pixelLength = offsetList[index + 1] - offsetList[index];
-					pixels = new byte[pixelLength - 8];
-					br_wil.read(pixels);
-					if (pixels.length == 1) {
-						// 空白图片
-						byte[] sRGB = new byte[3];
-						byte[] pallete = SDK.palletes[pixels[0] & 0xff];
-						sRGB[0] = pallete[1];
-						sRGB[1] = pallete[2];
-						sRGB[2] = pallete[3];
-						return new Texture(sRGB, 1, 1);
-					}
-				}
+			byte[] sRGB = new byte[width * height * 3];
+			if (!decodeInto(index, sRGB, 0))
+				return Texture.EMPTY;
+			return new Texture(sRGB, width, height);
+		} catch (Exception ex) {
+			ex.printStackTrace();
+			return Texture.EMPTY;
+		}
+	}
+
+	public final boolean decodeInto(int index, byte[] sRGB, int off) {
+		if (!loaded)
+			return false;
+		if (index < 0)
+			return false;
+		if (index >= imageCount)
+			return false;
+		if (imageIndex.isEmpty(index))
+			return false;
+		int width = imageIndex.width(index);
+		int height = imageIndex.height(index);
+		if (off < 0 || sRGB.length - off < width * height * 3)
+			throw new IllegalArgumentException("sRGB length not match width * height * 3 !!!");
+		try {
+			byte[] pixels = readPixels(index, width, height);
+			if (pixels == null)
+				return false;
+			if (bitCount == 8 || bitCount == 16) {
+				PixelConverter.bmpToRGB(pixels, bitCount, width, height, sRGB, off);
+			} else {
+				// 不支持的色深度，以黑色填充
+				Arrays.fill(sRGB, off, off + width * height * 3, (byte) 0);
 			}
-			byte[] sRGB = new byte[ii.getWidth() * ii.getHeight() * 3];
-			if (bitCount == 8) {
-				int p_index = 0;
-				for (int h = ii.getHeight() - 1; h >= 0; --h)
-					for (int w = 0; w < ii.getWidth(); ++w) {
-						// 跳过填充字节
-						if (w == 0)
-							p_index += SDK.skipBytes(8, ii.getWidth());
-						byte[] pallete = SDK.palletes[pixels[p_index++] & 0xff];
-						int _idx = (w + h * ii.getWidth()) * 3;
-						sRGB[_idx] = pallete[1];
-						sRGB[_idx + 1] = pallete[2];
-						sRGB[_idx + 2] = pallete[3];
-					}
-			} else if (bitCount == 16) {
-				ByteBuffer bb = ByteBuffer.wrap(pixels);
-				bb.order(ByteOrder.LITTLE_ENDIAN);
-				int p_index = 0;
-				for (int h = ii.getHeight() - 1; h >= 0; --h)
-					for (int w = 0; w < ii.getWidth(); ++w, p_index += 2) {
-						// 跳过填充字节
-						if (w == 0)
-							p_index += SDK.skipBytes(16, ii.getWidth());
-						short pdata = bb.getShort(p_index);
-						byte r = (byte) ((pdata & 0xf800) >> 8);// 由于是与16位做与操作，所以多出了后面8位
-						byte g = (byte) ((pdata & 0x7e0) >> 3);// 多出了3位，在强转时前8位会自动丢失
-						byte b = (byte) ((pdata & 0x1f) << 3);// 少了3位
-						int _idx = (w + h * ii.getWidth()) * 3;
-						sRGB[_idx] = r;
-						sRGB[_idx + 1] = g;
-						sRGB[_idx + 2] = b;
-					}
+			return true;
+		} catch (Exception ex) {
+			ex.printStackTrace();
+			return false;
+		}
+	}
+
+	public final boolean decodeInto(int index, int[] argb, int off) {
+		if (!loaded)
+			return false;
+		if (index < 0)
+			return false;
+		if (index >= imageCount)
+			return false;
+		if (imageIndex.isEmpty(index))
+			return false;
+		int width = imageIndex.width(index);
+		int height = imageIndex.height(index);
+		if (off < 0 || argb.length - off < width * height)
+			throw new IllegalArgumentException("argb length not match width * height !!!");
+		try {
+			byte[] pixels = readPixels(index, width, height);
+			if (pixels == null)
+				return false;
+			if (bitCount == 8 || bitCount == 16) {
+				PixelConverter.bmpToARGB(pixels, bitCount, width, height, argb, off);
+			} else {
+				// 不支持的色深度，全部透明
+				Arrays.fill(argb, off, off + width * height, 0);
 			}
-			return new Texture(sRGB, ii.getWidth(), ii.getHeight());
+			return true;
 		} catch (Exception ex) {
 			ex.printStackTrace();
-			return Texture.EMPTY;
+			return false;
 		}
 	}
 
-	public synchronized final ImageInfo info(int index) {
+	public final boolean decodeIndexedInto(int index, byte[] indices, int off) {
+		if (!loaded)
+			return false;
+		if (index < 0)
+			return false;
+		if (index >= imageCount)
+			return false;
+		if (imageIndex.isEmpty(index))
+			return false;
+		if (bitCount != 8)
+			return false;
+		int width = imageIndex.width(index);
+		int height = imageIndex.height(index);
+		if (off < 0 || indices.length - off < width * height)
+			throw new IllegalArgumentException("indices length not match width * height !!!");
+		try {
+			byte[] pixels = readPixels(index, width, height);
+			if (pixels == null)
+				return false;
+			PixelConverter.bmpToIndexed(pixels, width, height, indices, off);
+			return true;
+		} catch (Exception ex) {
+			ex.printStackTrace();
+			return false;
+		}
+	}
+
+	/**
+	 * 读取图片的原始像素数据<br>
+	 * 返回的数组可能是线程独立的临时缓冲区，长度可能大于图片数据长度
+	 * 
+	 * @return 像素数据，数据长度不足时返回null
+	 */
+	private byte[] readPixels(int index, int width, int height) throws IOException {
+		byte[] pixels = null;
+		int pixelLength = 0;
+		if (tmp_wil_dir != null) {
+			File ftmpimg = new File(tmp_wil_dir.getAbsolutePath() + File.separator + index);
+			if (ftmpimg.exists()) {
+				FileInputStream fis = new FileInputStream(ftmpimg);
+				pixels = new byte[fis.available()];
+				pixelLength = fis.read(pixels);
+				fis.close();
+			}
+		}
+		if (pixels == null) {
+			pixelLength = offsetList[index + 1] - offsetList[index] - 8;
+			pixels = DecodeBuffers.get().packed(pixelLength);
+			br_wil.readFully(offsetList[index] + 8, pixels, 0, pixelLength);
+		}
+		if (pixelLength < SDK.widthBytes(bitCount * width) * height)
+			return null;
+		return pixels;
+	}
+
+	public final ImageInfo info(int index) {
 		if (!loaded)
 			return ImageInfo.EMPTY;
 		if (index < 0)
 			return ImageInfo.EMPTY;
 		if (index >= imageCount)
 			return ImageInfo.EMPTY;
-		return imageInfos[index];
+		return imageIndex.get(index);
 	}
 
 	public int count() {
@@ -515,15 +577,16 @@ public final class WIL implements WriteableImageLibrary {
 			// bw_wil.writeIntLE(0); // verFlag
 			bw_wil.write(currentUsePallete);
 			int lastOffset = 1024 + 4 + 4 + 4 + 44;
-			for (int i = 0; i < imageInfos.length; ++i) {
+			for (int i = 0; i < imageIndex.size(); ++i) {
+				int width = imageIndex.width(i);
+				int height = imageIndex.height(i);
 				bw_wix.writeIntLE(lastOffset);
 				lastOffset += 8;
-				bw_wil.writeUnsignedShortLE(imageInfos[i].getWidth() < 1 ? 1 : imageInfos[i].getWidth());
-				bw_wil.writeUnsignedShortLE(imageInfos[i].getHeight() < 1 ? 1 : imageInfos[i].getHeight());
-				bw_wil.writeShortLE(imageInfos[i].getOffsetX());
-				bw_wil.writeShortLE(imageInfos[i].getOffsetY());
-				if (imageInfos[i] == ImageInfo.EMPTY
-						|| (imageInfos[i].getWidth() == 1 && imageInfos[i].getHeight() == 1)) {
+				bw_wil.writeUnsignedShortLE(width < 1 ? 1 : width);
+				bw_wil.writeUnsignedShortLE(height < 1 ? 1 : height);
+				bw_wil.writeShortLE(imageIndex.offsetX(i));
+				bw_wil.writeShortLE(imageIndex.offsetY(i));
+				if (imageIndex.isEmpty(i) || (width == 1 && height == 1)) {
 					if (bitCount == 8) {
 						lastOffset += 1;
 						bw_wil.writeByte(0);
@@ -535,7 +598,7 @@ public final class WIL implements WriteableImageLibrary {
 						bw_wil.writeByte(0);
 					}
 				} else {
-					int pixelsLength = SDK.widthBytes(bitCount * imageInfos[i].getWidth()) * imageInfos[i].getHeight();
+					int pixelsLength = SDK.widthBytes(bitCount * width) * height;
 					lastOffset += pixelsLength;
 					File tmpFile = new File(tmp_wil_dir.getAbsolutePath() + File.separator + i);
 					if (tmpFile.exists()) {
@@ -545,10 +608,9 @@ public final class WIL implements WriteableImageLibrary {
 						fis.close();
 						bw_wil.write(pixels);
 					} else {
-						br_wil.seek(offsetList[i] + 8);
 						int pixelLength = offsetList[i + 1] - offsetList[i];
 						byte[] pixels = new byte[pixelLength - 8];
-						br_wil.read(pixels);
+						br_wil.readFully(offsetList[i] + 8, pixels);
 						bw_wil.write(pixels);
 					}
 				}
@@ -576,20 +638,13 @@ public final class WIL implements WriteableImageLibrary {
 			}
 			fos.close();
 			br_wil.close();
-			br_wil = new BinaryReader(flib);
+			br_wil = new BinaryReader(flib, true);
 			bitCount = colorBit;
 		}
 		if (bitCount != colorBit)
 			throw new IllegalArgumentException("colorBit not match bitCount!");
-		if (index > imageCount - 1) {
-			ImageInfo[] oldInfos = imageInfos;
-			imageInfos = new ImageInfo[index + 1];
-			for (int i = 0; i < oldInfos.length; ++i) {
-				imageInfos[i] = oldInfos[i];
-			}
-			for (int i = oldInfos.length; i < index + 1; ++i)
-				imageInfos[i] = new ImageInfo();
-		}
+		if (index > imageCount - 1)
+			imageIndex.resize(index + 1);
 	}
 
 	public synchronized void tex(int index, byte[] rgbs, int colorBit, int width, int height, int offsetX,
@@ -598,11 +653,7 @@ public final class WIL implements WriteableImageLibrary {
 			return;
 		try {
 			warmup(index, colorBit);
-			imageInfos[index].setColorBit((byte) bitCount);
-			imageInfos[index].setWidth((short) width);
-			imageInfos[index].setHeight((short) height);
-			imageInfos[index].setOffsetX((short) offsetX);
-			imageInfos[index].setOffsetY((short) offsetY);
+			imageIndex.set(index, bitCount, width, height, (short) offsetX, (short) offsetY);
 			File fimg = new File(tmp_wil_dir.getAbsolutePath() + File.separator + index);
 			FileOutputStream fosimg = new FileOutputStream(fimg);
 			int skipBytes = SDK.skipBytes(bitCount, width);
@@ -707,11 +758,7 @@ public final class WIL implements WriteableImageLibrary {
 	}
 
 	private void tex8bit(int index, byte[] rgb8s, int width, int height, int offsetX, int offsetY) throws IOException {
-		imageInfos[index].setColorBit((byte) bitCount);
-		imageInfos[index].setWidth((short) width);
-		imageInfos[index].setHeight((short) height);
-		imageInfos[index].setOffsetX((short) offsetX);
-		imageInfos[index].setOffsetY((short) offsetY);
+		imageIndex.set(index, bitCount, width, height, (short) offsetX, (short) offsetY);
 		File fimg = new File(tmp_wil_dir.getAbsolutePath() + File.separator + index);
 		FileOutputStream fosimg = new FileOutputStream(fimg);
 		int skipBytes = SDK.skipBytes(bitCount, width);
@@ -736,11 +783,7 @@ public final class WIL implements WriteableImageLibrary {
 			return;
 		try {
 			warmup(index, 16);
-			imageInfos[index].setColorBit((byte) bitCount);
-			imageInfos[index].setWidth((short) width);
-			imageInfos[index].setHeight((short) height);
-			imageInfos[index].setOffsetX((short) offsetX);
-			imageInfos[index].setOffsetY((short) offsetY);
+			imageIndex.set(index, bitCount, width, height, (short) offsetX, (short) offsetY);
 			File fimg = new File(tmp_wil_dir.getAbsolutePath() + File.separator + index);
 			FileOutputStream fosimg = new FileOutputStream(fimg);
 			int skipBytes = SDK.skipBytes(bitCount, width);
@@ -770,7 +813,7 @@ public final class WIL implements WriteableImageLibrary {
 			return;
 		if (index > imageCount - 1)
 			return;
-		imageInfos[index] = ImageInfo.EMPTY;
+		imageIndex.setEmpty(index);
 		imageCount -= 1;
 	}
 }
@@ -16,8 +16,11 @@
  */
 package core.image;
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
+
 import core.BinaryReader;
 import core.SDK;
 import core.Texture;
@@ -42,14 +45,16 @@ public final class WIS implements ImageLibrary {
     private int[] offsetList;
     /* 图片数据长度 */
     private int[] lengthList;
-    private ImageInfo[] imageInfos;
+    /* 图片信息，按列存储 */
+    private ImageIndex imageIndex;
     /**
-     * 获取库中图片信息数组
+     * 获取库中图片信息数组<br>
+     * 每次调用都会创建新的数组
      * 
      * @return 所有存在于当前WIS库中的图片信息数组
      */
 	ImageInfo[] getImageInfos() {
-		return imageInfos;
+		return imageIndex.toArray();
 	}
 	/* WIS文件随机读取对象 */
 	private BinaryReader br_wis;
@@ -62,7 +67,7 @@ public final class WIS implements ImageLibrary {
 	public boolean isLoaded() {
 		return loaded;
 	}
-	/* 文件指针读取锁 */
+	/* 关闭锁，图片读取使用定位读取，不需要加锁 */
     private Object wis_locker = new Object();
 	
     public WIS(String wisPath) {
@@ -71,33 +76,47 @@ public final class WIS implements ImageLibrary {
 		if(!f_wis.isFile()) return;
 		if(!f_wis.canRead()) return;
     	try {
-    		br_wis = new BinaryReader(f_wis);
+    		br_wis = new BinaryReader(f_wis, true);
+    		File[] sources = { f_wis };
+    		IndexCache cache = IndexCache.load(sources, IndexCache.MODE_WIS);
+    		if(cache != null) {
+    			imageCount = cache.imageIndex.size();
+    			offsetList = cache.intOffsets();
+    			lengthList = cache.lengths;
+    			imageIndex = cache.imageIndex;
+    			loaded = true;
+    			return;
+    		}
 			br_wis.seek(br_wis.length() - 12);
 			int lastImageOff = br_wis.readIntLE();
 			int lastImageLen = br_wis.readIntLE();
 			imageCount = (int) ((br_wis.length() - lastImageOff - lastImageLen) / 12);
-			imageInfos = new ImageInfo[imageCount];
+			imageIndex = new ImageIndex(imageCount);
 			offsetList = new int[imageCount];
 			lengthList = new int[imageCount];
 			br_wis.seek(lastImageOff + lastImageLen);
+			// 索引表每项12字节：偏移、长度以及4字节未知数据
+			int[] indexTable = new int[imageCount * 3];
+			br_wis.readIntsLE(indexTable, 0, indexTable.length);
 			for(int i = 0; i < imageCount; ++i) {
-				offsetList[i] = br_wis.readIntLE();
-				lengthList[i] = br_wis.readIntLE();
-				if(lengthList[i] == 13) {
-					imageInfos[i] = ImageInfo.EMPTY;
-				}
-				br_wis.skipBytes(4);
+				offsetList[i] = indexTable[i * 3];
+				lengthList[i] = indexTable[i * 3 + 1];
 			}
+			long wisLength = br_wis.length();
 			for(int i = 0; i < imageCount; ++i) {
-				if(imageInfos[i] != null) continue;
-				ImageInfo ii = new ImageInfo();
+				// 长度为13的是空图片
+				if(lengthList[i] == 13) continue;
+				if(offsetList[i] < 0 || (long) offsetList[i] + 12 > wisLength) {
+					// 数据出错，直接赋值为空图片
+					imageIndex.setEmpty(i);
+					continue;
+				}
 				br_wis.seek(offsetList[i] + 4);
-				ii.setWidth(br_wis.readShortLE());
-				ii.setHeight(br_wis.readShortLE());
-				ii.setOffsetX(br_wis.readShortLE());
-				ii.setOffsetY(br_wis.readShortLE());
-				imageInfos[i] = ii;
+				int w = br_wis.readShortLE();
+				int h = br_wis.readShortLE();
+				imageIndex.set(i, 8, w, h, br_wis.readShortLE(), br_wis.readShortLE());
 			}
+			IndexCache.save(sources, IndexCache.MODE_WIS, offsetList, lengthList, imageIndex);
 			loaded = true;
 		} catch (Exception e) {
 			e.printStackTrace();
@@ -106,43 +125,100 @@ public final class WIS implements ImageLibrary {
     }
         
     /**
-	 * 解压数据
+	 * 将RLE数据直接解压为RGB<br>
+	 * 解压过程为逐段进行(长度为无符号字节1-255)<br>
+	 * XX YY 表示以YY填充XX个像素<br>
+	 * 00 XX YY ZZ ... 表示从YY开始XX个字节是未被压缩的，直接转换即可<br>
+	 * 00 00 可能是脏数据，不予处理<br>
+	 * 每段只校验一次长度，超出压缩数据或图片范围的部分被截断，未解出的像素为透明黑色
+	 * 
 	 * @param packed 压缩的数据
-	 * @param unpackLength 解压后数据大小
+	 * @param srcPos 压缩数据起始位置
+	 * @param srcLength 压缩数据长度
+	 * @param sRGB 存放结果的数组
+	 * @param dstPos 结果起始位置
+	 * @param pixelCount 图片像素个数
 	 */
-	private static byte[] unpack(byte[] packed, int unpackLength) {
-		int srcLength = packed.length; // 压缩后数据大小
-		byte[] result = new byte[unpackLength]; // 解压后数据
-		int srcIndex = 0; // 当前解压的字节索引
-		int dstIndex = 0; // 解压过程还原出的字节索引
-		// 解压过程为逐字节进行(字节应转为1-256)
-		// 如果当前字节非0则表示将以下一个字节数据填充当前字节个字节位置
-		// 如果当前字节为0且下一个字节不为0则表示从下下个字节开始到下一个字节长度都没有压缩，直接复制到目标数组
-		// 如果当前字节为0且下一个字节也为0则可能是脏数据，不予处理
-		// XX YY 表示以YY填充XX个字节
-		// 00 XX YY ZZ ... 表示从YY开始XX个字节是未被压缩的，直接复制出来即可
-		while(srcLength > 0 && unpackLength > 0) {
-			int length = packed[srcIndex++]; // 取出第一个标志位
-			int value = packed[srcIndex++] & 0xff; // 取出第二个标志位
-			srcLength -= 2;
-			/*if(value == 0 && length == 0) {
-				// 脏数据
-				continue;
-			} else */if(length != 0) {
-				// 需要解压缩
-				unpackLength -= length;
-				for(int i = 0; i < length; ++i) {
-					result[dstIndex++] = (byte) value;
-				}
-			} else if(value != 0) {
-				srcLength -= value;
-				unpackLength -= value;
-				System.arraycopy(packed, srcIndex, result, dstIndex, value);
-				dstIndex += value;
-				srcIndex += value;
+	private static void unpackToRGB(byte[] packed, int srcPos, int srcLength, byte[] sRGB, int dstPos, int pixelCount) {
+		int[] pallete = SDK.palletesTransparent;
+		int srcEnd = srcPos + srcLength;
+		int remaining = pixelCount;
+		while(srcEnd - srcPos >= 2 && remaining > 0) {
+			int length = packed[srcPos++] & 0xff;
+			int value = packed[srcPos++] & 0xff;
+			if(length != 0) {
+				length = Math.min(length, remaining);
+				PixelConverter.fillRGB(sRGB, dstPos, length, pallete[value]);
+			} else {
+				length = Math.min(value, Math.min(remaining, srcEnd - srcPos));
+				PixelConverter.indexedToRGB(packed, srcPos, sRGB, dstPos, length);
+				srcPos += value;
 			}
+			dstPos += length * 3;
+			remaining -= length;
 		}
-		return result;
+		Arrays.fill(sRGB, dstPos, dstPos + remaining * 3, (byte) 0);
+	}
+
+    /**
+	 * 将RLE数据解压为调色板索引，规则同{@link #unpackToRGB(byte[], int, int, byte[], int, int)}
+	 * 
+	 * @param packed 压缩的数据
+	 * @param srcPos 压缩数据起始位置
+	 * @param srcLength 压缩数据长度
+	 * @param indices 存放结果的数组
+	 * @param dstPos 结果起始位置
+	 * @param pixelCount 图片像素个数
+	 */
+	private static void unpackToIndexed(byte[] packed, int srcPos, int srcLength, byte[] indices, int dstPos, int pixelCount) {
+		int srcEnd = srcPos + srcLength;
+		int remaining = pixelCount;
+		while(srcEnd - srcPos >= 2 && remaining > 0) {
+			int length = packed[srcPos++] & 0xff;
+			int value = packed[srcPos++] & 0xff;
+			if(length != 0) {
+				length = Math.min(length, remaining);
+				Arrays.fill(indices, dstPos, dstPos + length, (byte) value);
+			} else {
+				length = Math.min(value, Math.min(remaining, srcEnd - srcPos));
+				System.arraycopy(packed, srcPos, indices, dstPos, length);
+				srcPos += value;
+			}
+			dstPos += length;
+			remaining -= length;
+		}
+		Arrays.fill(indices, dstPos, dstPos + remaining, (byte) 0);
+	}
+
+    /**
+	 * 将RLE数据直接解压为ARGB，规则同{@link #unpackToRGB(byte[], int, int, byte[], int, int)}
+	 * 
+	 * @param packed 压缩的数据
+	 * @param srcPos 压缩数据起始位置
+	 * @param srcLength 压缩数据长度
+	 * @param argb 存放结果的数组
+	 * @param dstPos 结果起始位置
+	 * @param pixelCount 图片像素个数
+	 */
+	private static void unpackToARGB(byte[] packed, int srcPos, int srcLength, int[] argb, int dstPos, int pixelCount) {
+		int[] pallete = SDK.palletesTransparent;
+		int srcEnd = srcPos + srcLength;
+		int remaining = pixelCount;
+		while(srcEnd - srcPos >= 2 && remaining > 0) {
+			int length = packed[srcPos++] & 0xff;
+			int value = packed[srcPos++] & 0xff;
+			if(length != 0) {
+				length = Math.min(length, remaining);
+				Arrays.fill(argb, dstPos, dstPos + length, pallete[value]);
+			} else {
+				length = Math.min(value, Math.min(remaining, srcEnd - srcPos));
+				PixelConverter.indexedToARGB(packed, srcPos, argb, dstPos, length);
+				srcPos += value;
+			}
+			dstPos += length;
+			remaining -= length;
+		}
+		Arrays.fill(argb, dstPos, dstPos + remaining, 0);
 	}
     
     /**
@@ -152,7 +228,7 @@ public final class WIS implements ImageLibrary {
 		synchronized (wis_locker) {
 			offsetList = null;
 			lengthList = null;
-            imageInfos = null;
+            imageIndex = null;
             loaded = false;
 			if (br_wis != null)
             {
@@ -165,52 +241,127 @@ public final class WIS implements ImageLibrary {
 		if(!loaded) return Texture.EMPTY;
 		if(index < 0) return Texture.EMPTY;
 		if(index >= imageCount) return Texture.EMPTY;
-		if(imageInfos[index] == ImageInfo.EMPTY) return Texture.EMPTY;
+		if(imageIndex.isEmpty(index)) return Texture.EMPTY;
+		int width = imageIndex.width(index);
+		int height = imageIndex.height(index);
+		// 损坏的宽高不分配数组
+		if(width <= 0 || height <= 0 || (long) width * height * 3 > Integer.MAX_VALUE) return Texture.EMPTY;
+		try{
+			byte[] sRGB = new byte[width * height * 3];
+			if(!decodeInto(index, sRGB, 0)) return Texture.EMPTY;
+			return new Texture(sRGB, width, height);
+		} catch(Exception ex) {
+			ex.printStackTrace();
+			return Texture.EMPTY;
+		}
+	}
+
+	public final boolean decodeInto(int index, byte[] sRGB, int off) {
+		if(!loaded) return false;
+		if(index < 0) return false;
+		if(index >= imageCount) return false;
+		if(imageIndex.isEmpty(index)) return false;
+		int width = imageIndex.width(index);
+		int height = imageIndex.height(index);
+		if(off < 0 || sRGB.length - off < width * height * 3)
+			throw new IllegalArgumentException("sRGB length not match width * height * 3 !!!");
     	try{
-    		ImageInfo ii = imageInfos[index];
-    		int offset = offsetList[index];
-    		int length = lengthList[index];
-    		byte[] imageBytes = new byte[ii.getWidth() * ii.getHeight()];
-    		byte[] packed = null;
-    		byte encry = 0;
-    		synchronized (wis_locker) {
-        		// 是否压缩(RLE)
-        		br_wis.seek(offset);
-        		encry = br_wis.readByte();
-        		br_wis.skipBytes(11);
-        		if(encry == 1) {
-        			// 压缩了
-        			packed = new byte[length - 12];
-        			br_wis.read(packed);
-        		} else {
-        			// 没压缩
-        			br_wis.read(imageBytes);
-        		}
-			}
-    		if(encry == 1)
-    			imageBytes = unpack(packed, imageBytes.length);
-    		byte[] sRGB = new byte[ii.getWidth() * ii.getHeight() * 3];
-    		int index1 = 0;
-    		for(int h = 0; h < ii.getHeight(); ++h)
-    			for(int w = 0; w < ii.getWidth(); ++w) {
-    				byte[] pallete = SDK.palletes[imageBytes[index1++] & 0xff];
-					int _idx = (w + h * ii.getWidth()) * 3;
-					sRGB[_idx] = pallete[1];
-					sRGB[_idx + 1] = pallete[2];
-					sRGB[_idx + 2] = pallete[3];
-    			}
-	    	return new Texture(sRGB, ii.getWidth(), ii.getHeight());
+    		int pixelCount = width * height;
+    		byte[] packed = readPacked(index);
+    		if(packed != null) {
+    			unpackToRGB(packed, 0, lengthList[index] - 12, sRGB, off, pixelCount);
+    		} else {
+    			byte[] imageBytes = readPixels(index, pixelCount);
+    			PixelConverter.indexedToRGB(imageBytes, 0, sRGB, off, pixelCount);
+    		}
+	    	return true;
+    	} catch(Exception ex) {
+    		ex.printStackTrace();
+    		return false;
+    	}
+    }
+
+	public final boolean decodeInto(int index, int[] argb, int off) {
+		if(!loaded) return false;
+		if(index < 0) return false;
+		if(index >= imageCount) return false;
+		if(imageIndex.isEmpty(index)) return false;
+		int width = imageIndex.width(index);
+		int height = imageIndex.height(index);
+		if(off < 0 || argb.length - off < width * height)
+			throw new IllegalArgumentException("argb length not match width * height !!!");
+    	try{
+    		int pixelCount = width * height;
+    		byte[] packed = readPacked(index);
+    		if(packed != null) {
+    			unpackToARGB(packed, 0, lengthList[index] - 12, argb, off, pixelCount);
+    		} else {
+    			byte[] imageBytes = readPixels(index, pixelCount);
+    			PixelConverter.indexedToARGB(imageBytes, 0, argb, off, pixelCount);
+    		}
+	    	return true;
     	} catch(Exception ex) {
     		ex.printStackTrace();
-    		return Texture.EMPTY;
+    		return false;
     	}
     }
 
+	public final boolean decodeIndexedInto(int index, byte[] indices, int off) {
+		if(!loaded) return false;
+		if(index < 0) return false;
+		if(index >= imageCount) return false;
+		if(imageIndex.isEmpty(index)) return false;
+		int width = imageIndex.width(index);
+		int height = imageIndex.height(index);
+		if(off < 0 || indices.length - off < width * height)
+			throw new IllegalArgumentException("indices length not match width * height !!!");
+    	try{
+    		int pixelCount = width * height;
+    		byte[] packed = readPacked(index);
+    		if(packed != null)
+    			unpackToIndexed(packed, 0, lengthList[index] - 12, indices, off, pixelCount);
+    		else
+    			br_wis.readFully(offsetList[index] + 12, indices, off, pixelCount);
+	    	return true;
+    	} catch(Exception ex) {
+    		ex.printStackTrace();
+    		return false;
+    	}
+    }
+
+	/**
+	 * 读取RLE压缩的图片数据<br>
+	 * 返回的数组是线程独立的临时缓冲区，长度可能大于图片数据长度
+	 * 
+	 * @return 压缩数据，图片未压缩时返回null
+	 */
+	private byte[] readPacked(int index) throws IOException {
+		int offset = offsetList[index];
+		int length = lengthList[index];
+		byte[] packed = DecodeBuffers.get().packed(Math.max(length - 12, 1));
+		// 是否压缩(RLE)
+		br_wis.readFully(offset, packed, 0, 1);
+		if(packed[0] != 1) return null;
+		if(length < 12) throw new EOFException();
+		br_wis.readFully(offset + 12, packed, 0, length - 12);
+		return packed;
+	}
+
+	/**
+	 * 读取未压缩图片的调色板索引数据<br>
+	 * 返回的数组是线程独立的临时缓冲区，长度可能大于图片数据长度
+	 */
+	private byte[] readPixels(int index, int imageLength) throws IOException {
+		byte[] imageBytes = DecodeBuffers.get().pixels(imageLength);
+		br_wis.readFully(offsetList[index] + 12, imageBytes, 0, imageLength);
+		return imageBytes;
+	}
+
 	public final ImageInfo info(int index) {
 		if(!loaded) return ImageInfo.EMPTY;
 		if(index < 0) return ImageInfo.EMPTY;
 		if(index >= imageCount) return ImageInfo.EMPTY;
-		return imageInfos[index];
+		return imageIndex.get(index);
 	}
 
 	public int count() {
@@ -16,13 +16,17 @@
  */
 package core.image;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.util.zip.InflaterInputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
 
 import core.BinaryReader;
 import core.SDK;
@@ -48,17 +52,43 @@ public final class WZL implements ImageLibrary {
     private long[] offsetList;
     /* 图片数据长度 */
     private int[] lengthList;
-    private ImageInfo[] imageInfos;
+    /* 图片信息，按列存储 */
+    private ImageIndex imageIndex;
     /**
-     * 获取库中图片信息数组
+     * 获取库中图片信息数组<br>
+     * 每次调用都会创建新的数组
      * 
      * @return 所有存在于当前WZL库中的图片信息数组
      */
 	public ImageInfo[] getImageInfos() {
-		return imageInfos;
+		if(lazy && loaded) {
+			synchronized (header_locker) {
+				if(imageIndex == null) return new ImageInfo[0];
+				try {
+					int[] pending = new int[imageCount];
+					int n = 0;
+					for (int i = 0; i < imageCount; ++i)
+						if (imageIndex.isPending(i))
+							pending[n++] = i;
+					readHeaders(pending, n, br_wzl.length());
+					for (int i = 0; i < imageCount; ++i)
+						markHeaderRead(i);
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+		ImageIndex ii = imageIndex;
+		return ii == null ? new ImageInfo[0] : ii.toArray();
 	}
 	/* WZL文件随机读取对象 */
 	private BinaryReader br_wzl;
+	/* 是否在首次访问图片时才读取图片信息 */
+	private final boolean lazy;
+	/* 延迟读取图片信息时使用的锁 */
+	private final Object header_locker = new Object();
+	/* 延迟读取模式下图片信息已处理的位图，在header_locker中写入，读取不加锁；为null表示所有图片信息均已读取或库已关闭 */
+	private AtomicLongArray headerRead;
 	private boolean loaded;
 	/**
 	 * 获取库加载状态
@@ -68,10 +98,29 @@ public final class WZL implements ImageLibrary {
 	public boolean isLoaded() {
 		return loaded;
 	}
-	/* 文件指针读取锁 */
+	/* 关闭锁，图片读取使用定位读取，不需要加锁 */
     private Object wzl_locker = new Object();
+    /* 像素数据超过此长度的图片逐行读取、解压并转换，不再整体放入内存 */
+    private static final int STREAM_THRESHOLD = 1 << 20;
+    /* 打开库时每次读取图片信息的最大数据长度 */
+    private static final int HEADER_CHUNK = 64 * 1024;
+    /* 逐行解压时每次读取的压缩数据长度 */
+    private static final int STREAM_CHUNK = 16 * 1024;
+    /* 空闲的解压器，关闭库时统一释放本地内存 */
+    private final ArrayDeque<Inflater> inflaters = new ArrayDeque<Inflater>();
     
     public WZL(String wzlPath) {
+    	this(wzlPath, false);
+    }
+
+    /**
+     * 打开WZL库
+     * 
+     * @param wzlPath WZL文件路径
+     * @param lazy true表示打开时不读取图片信息，在首次访问某张图片时再读取
+     */
+    public WZL(String wzlPath, boolean lazy) {
+    	this.lazy = lazy;
     	String wzxPath = SDK.changeFileExtension(wzlPath, "wzx");
 		File f_wzx = new File(wzxPath);
 		if(!f_wzx.exists()) return;
@@ -82,44 +131,52 @@ public final class WZL implements ImageLibrary {
 		if(!f_wzl.isFile()) return;
 		if(!f_wzl.canRead()) return;
     	try {
+    		File[] sources = { f_wzl, f_wzx };
+    		IndexCache cache = IndexCache.load(sources, IndexCache.MODE_WZL);
+    		if(cache != null) {
+    			imageCount = cache.imageIndex.size();
+    			offsetList = cache.offsets;
+    			lengthList = cache.lengths;
+    			imageIndex = cache.imageIndex;
+    			br_wzl = new BinaryReader(f_wzl, true);
+    			loaded = true;
+    			return;
+    		}
     		BinaryReader br_wzx = new BinaryReader(f_wzx);
     		br_wzx.skipBytes(44); // 跳过标题
     		imageCount = br_wzx.readIntLE();
 			offsetList = new long[imageCount];
-			for (int i = 0; i < imageCount; ++i)
-			{
-				// 读取数据偏移地址
-				offsetList[i] = br_wzx.readUnsignedIntLE();
-			}
+			// 读取数据偏移地址
+			br_wzx.readUnsignedIntsLE(offsetList, 0, imageCount);
 			br_wzx.close();
-			br_wzl = new BinaryReader(f_wzl);
-			imageInfos = new ImageInfo[imageCount];
+			br_wzl = new BinaryReader(f_wzl, true);
+			long wzlLength = br_wzl.length();
+			imageIndex = new ImageIndex(imageCount);
             lengthList = new int[imageCount];
+            int[] valid = new int[imageCount];
+            int validCount = 0;
             for (int i = 0; i < imageCount; ++i) {
             	long offset = offsetList[i];
             	if(offset <= 48) {
             		// WZL里offset小于64的是空图片
-					imageInfos[i] = ImageInfo.EMPTY;
+					imageIndex.setEmpty(i);
             		continue;
             	}
-            	if(offset + 16 > br_wzl.length()) {
+            	if(offset + 16 > wzlLength) {
 					// 数据出错，直接赋值为空图片
-					imageInfos[i] = ImageInfo.EMPTY;
+					imageIndex.setEmpty(i);
             		continue;
 				}
-                // 读取图片信息和数据长度
-                ImageInfo ii = new ImageInfo();
-                br_wzl.seek(offset);
-                ii.setColorBit((byte) (br_wzl.readByte() == 5 ? 16 : 8));
-                ii.wzlCompressed = br_wzl.readByte() != 0;
-                br_wzl.skipBytes(2); // 跳过2字节未知数据
-                ii.setWidth(br_wzl.readUnsignedShortLE());
-				ii.setHeight(br_wzl.readUnsignedShortLE());
-				ii.setOffsetX(br_wzl.readShortLE());
-				ii.setOffsetY(br_wzl.readShortLE());
-                imageInfos[i] = ii;
-                lengthList[i] = (int) br_wzl.readUnsignedIntLE();
+            	if(lazy)
+            		imageIndex.setPending(i);
+            	else
+            		valid[validCount++] = i;
             }
+            if(lazy)
+            	headerRead = new AtomicLongArray((imageCount + 63) >>> 6);
+            readHeaders(valid, validCount, wzlLength);
+            if(!lazy)
+            	IndexCache.save(sources, IndexCache.MODE_WZL, offsetList, lengthList, imageIndex);
             loaded = true;
 		} catch (Exception e) {
 			e.printStackTrace();
@@ -127,18 +184,139 @@ public final class WZL implements ImageLibrary {
 		}
     }
 
-    /** 从zlib解压 
-     * @throws IOException */
-	private static byte[] unzip(byte[] ziped) throws IOException {
-		InflaterInputStream iis = new InflaterInputStream(new ByteArrayInputStream(ziped));
-		ByteArrayOutputStream o = new ByteArrayOutputStream(1024);
-		int i = 1024;
-		byte[] buf = new byte[i];
+    /**
+     * 按数据偏移从小到大读取给定图片的信息和数据长度<br>
+     * 相邻的图片信息合并为一次不超过{@link #HEADER_CHUNK}字节的读取
+     * 
+     * @param indexes 图片索引，偏移必须已校验
+     * @param count 图片数量
+     * @param wzlLength WZL文件长度
+     */
+	private void readHeaders(int[] indexes, int count, long wzlLength) throws IOException {
+		// 高32位为偏移，低32位为索引，翻转符号位后按无符号顺序排序
+		long[] order = new long[count];
+		for (int k = 0; k < count; ++k)
+			order[k] = ((offsetList[indexes[k]] << 32) | indexes[k]) ^ Long.MIN_VALUE;
+		Arrays.sort(order);
+		byte[] chunk = new byte[(int) Math.min(HEADER_CHUNK, wzlLength)];
+		ByteBuffer headers = ByteBuffer.wrap(chunk).order(ByteOrder.LITTLE_ENDIAN);
+		int k = 0;
+		while (k < count) {
+			long start = (order[k] ^ Long.MIN_VALUE) >>> 32;
+			int end = k + 1;
+			while (end < count && ((order[end] ^ Long.MIN_VALUE) >>> 32) + 16 - start <= chunk.length)
+				++end;
+			br_wzl.readFully(start, chunk, 0, (int) (((order[end - 1] ^ Long.MIN_VALUE) >>> 32) + 16 - start));
+			for (; k < end; ++k) {
+				long offset = (order[k] ^ Long.MIN_VALUE) >>> 32;
+				parseHeader((int) order[k], headers, (int) (offset - start));
+			}
+		}
+	}
+
+	/**
+	 * 从缓冲区解析一张图片的16字节信息
+	 */
+	private void parseHeader(int index, ByteBuffer headers, int position) {
+        int colorBit = headers.get(position) == 5 ? 16 : 8;
+        boolean compressed = headers.get(position + 1) != 0;
+        // 跳过2字节未知数据
+        int w = headers.getChar(position + 4);
+        int h = headers.getChar(position + 6);
+        imageIndex.set(index, colorBit, w, h, headers.getShort(position + 8), headers.getShort(position + 10));
+        imageIndex.setWzlCompressed(index, compressed);
+        lengthList[index] = headers.getInt(position + 12);
+	}
+
+	/**
+	 * 延迟读取模式下确保图片信息已读取，读取失败的图片置为空图片<br>
+	 * 已处理的图片只检查位图，不加锁
+	 * 
+	 * @return false表示库已关闭
+	 */
+	private boolean ensureHeader(int index) {
+		AtomicLongArray read = headerRead;
+		if(read == null || (read.get(index >>> 6) & (1L << index)) != 0) return true;
+		synchronized (header_locker) {
+			if(imageIndex == null) return false;
+			if(imageIndex.isPending(index)) {
+				try {
+					byte[] header = new byte[16];
+					br_wzl.readFully(offsetList[index], header);
+					parseHeader(index, ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN), 0);
+				} catch (IOException e) {
+					e.printStackTrace();
+					imageIndex.setEmpty(index);
+				}
+			}
+			markHeaderRead(index);
+		}
+		return true;
+	}
+
+	/**
+	 * 在位图中标记图片信息已处理，调用时持有header_locker<br>
+	 * 位图的写入在图片信息写入之后，不加锁读到标记的线程也能看到完整的图片信息
+	 */
+	private void markHeaderRead(int index) {
+		headerRead.set(index >>> 6, headerRead.get(index >>> 6) | (1L << index));
+	}
+
+    /**
+     * 从zlib解压到给定数组<br>
+     * 解压后长度已知，一次解压到目标数组，不再经过中间缓冲区
+     * 
+     * @param ziped 压缩数据
+     * @param zipedLength 压缩数据长度
+     * @param unziped 存放解压数据的数组
+     * @param unzipedLength 解压后数据长度
+     * @throws IOException 数据损坏或解压后长度不足
+     */
+	private void unzip(byte[] ziped, int zipedLength, byte[] unziped, int unzipedLength) throws IOException {
+		Inflater inflater = acquireInflater();
+		try {
+			inflater.setInput(ziped, 0, zipedLength);
+			int read = 0;
+			while (read < unzipedLength) {
+				int i = inflater.inflate(unziped, read, unzipedLength - read);
+				if (i == 0) {
+					if (inflater.needsDictionary())
+						throw new ZipException("zlib dictionary not supported");
+					if (inflater.finished() || inflater.needsInput())
+						throw new EOFException("Unexpected end of ZLIB input stream");
+				}
+				read += i;
+			}
+		} catch (DataFormatException e) {
+			throw new ZipException(e.getMessage());
+		} finally {
+			releaseInflater(inflater);
+		}
+	}
+
+	/**
+	 * 获取一个空闲的解压器，没有则新建
+	 */
+	private Inflater acquireInflater() {
+		synchronized (inflaters) {
+			Inflater inflater = inflaters.poll();
+			if (inflater != null) return inflater;
+		}
+		return new Inflater();
+	}
 
-		while ((i = iis.read(buf, 0, i)) > 0) {
-			o.write(buf, 0, i);
+	/**
+	 * 归还解压器，库已关闭时直接释放
+	 */
+	private void releaseInflater(Inflater inflater) {
+		inflater.reset();
+		synchronized (inflaters) {
+			if (loaded) {
+				inflaters.push(inflater);
+				return;
+			}
 		}
-		return o.toByteArray();
+		inflater.end();
 	}
     
     /**
@@ -146,10 +324,19 @@ public final class WZL implements ImageLibrary {
      */
 	public final void close() throws IOException {
 		synchronized (wzl_locker) {
-			offsetList = null;
-			lengthList = null;
-            imageInfos = null;
-            loaded = false;
+			synchronized (header_locker) {
+				// 与延迟读取图片信息互斥，关闭后不再读取
+				offsetList = null;
+				lengthList = null;
+				imageIndex = null;
+				headerRead = null;
+			}
+			synchronized (inflaters) {
+				loaded = false;
+				for (Inflater inflater : inflaters)
+					inflater.end();
+				inflaters.clear();
+			}
 			if (br_wzl != null)
             {
 				br_wzl.close();
@@ -161,65 +348,203 @@ public final class WZL implements ImageLibrary {
 		if(!loaded) return Texture.EMPTY;
 		if(index < 0) return Texture.EMPTY;
 		if(index >= imageCount) return Texture.EMPTY;
-		if(imageInfos[index] == ImageInfo.EMPTY) return Texture.EMPTY;
+		if(!ensureHeader(index)) return Texture.EMPTY;
+		if(imageIndex.isEmpty(index)) return Texture.EMPTY;
 		if(lengthList[index] == 0) return Texture.EMPTY;
+		int width = imageIndex.width(index);
+		int height = imageIndex.height(index);
+		// 损坏的宽高不分配数组
+		if(width <= 0 || height <= 0 || (long) width * height * 3 > Integer.MAX_VALUE) return Texture.EMPTY;
+		try{
+			byte[] sRGB = new byte[width * height * 3];
+			if(!decodeInto(index, sRGB, 0)) return Texture.EMPTY;
+			return new Texture(sRGB, width, height);
+		} catch(Exception ex) {
+			ex.printStackTrace();
+			return Texture.EMPTY;
+		}
+	}
+
+	public final boolean decodeInto(int index, byte[] sRGB, int off) {
+		if(!loaded) return false;
+		if(index < 0) return false;
+		if(index >= imageCount) return false;
+		if(!ensureHeader(index)) return false;
+		if(imageIndex.isEmpty(index)) return false;
+		if(lengthList[index] == 0) return false;
+		int width = imageIndex.width(index);
+		int height = imageIndex.height(index);
+		if(off < 0 || sRGB.length - off < width * height * 3)
+			throw new IllegalArgumentException("sRGB length not match width * height * 3 !!!");
     	try{
-    		ImageInfo ii = imageInfos[index];
-    		long offset = offsetList[index];
-    		int length = lengthList[index];
-    		byte[] pixels = new byte[length];
-    		synchronized (wzl_locker) {
-        		br_wzl.seek(offset + 16);
-        		br_wzl.read(pixels);
-			}
-    		if(ii.wzlCompressed)
-    			pixels = unzip(pixels);
-    		byte[] sRGB = new byte[ii.getWidth() * ii.getHeight() * 3];
-    		if (ii.getColorBit() == 8) {
-                int p_index = 0;
-                for (int h = ii.getHeight() - 1; h >= 0; --h)
-                    for (int w = 0; w < ii.getWidth(); ++w) {
-                        // 跳过填充字节
-                        if (w == 0)
-                            p_index += SDK.skipBytes(8, ii.getWidth());
-                        byte[] pallete = SDK.palletes[pixels[p_index++] & 0xff];
-    					int _idx = (w + h * ii.getWidth()) * 3;
-    					sRGB[_idx] = pallete[1];
-    					sRGB[_idx + 1] = pallete[2];
-    					sRGB[_idx + 2] = pallete[3];
-                    }
-            }
-	    	else if (ii.getColorBit() == 16) {
-	    		ByteBuffer bb = ByteBuffer.wrap(pixels);
-	    		bb.order(ByteOrder.LITTLE_ENDIAN);
-	    		int p_index = 0;
-                for (int h = ii.getHeight() - 1; h >= 0; --h)
-                    for (int w = 0; w < ii.getWidth(); ++w, p_index += 2) {
-                        // 跳过填充字节
-                        if (w == 0)
-                            p_index += SDK.skipBytes(16, ii.getWidth());
-                        short pdata = bb.getShort(p_index);
-                        byte r = (byte) ((pdata & 0xf800) >> 8);// 由于是与16位做与操作，所以多出了后面8位
-                        byte g = (byte) ((pdata & 0x7e0) >> 3);// 多出了3位，在强转时前8位会自动丢失
-                        byte b = (byte) ((pdata & 0x1f) << 3);// 少了3位
-    					int _idx = (w + h * ii.getWidth()) * 3;
-    					sRGB[_idx] = r;
-    					sRGB[_idx + 1] = g;
-    					sRGB[_idx + 2] = b;
-                    }
-            }
-	    	return new Texture(sRGB, ii.getWidth(), ii.getHeight());
+    		int colorBit = imageIndex.colorBit(index);
+    		if(SDK.widthBytes(colorBit * width) * height > STREAM_THRESHOLD)
+    			return streamRows(index, width, height, colorBit, sRGB, null, null, off);
+    		byte[] pixels = readPixels(index, width, height, colorBit);
+    		if(pixels == null) return false;
+    		if (colorBit == 8 || colorBit == 16)
+    			PixelConverter.bmpToRGB(pixels, colorBit, width, height, sRGB, off);
+	    	return true;
     	} catch(Exception ex) {
     		ex.printStackTrace();
-    		return Texture.EMPTY;
+    		return false;
     	}
     }
 
+	public final boolean decodeInto(int index, int[] argb, int off) {
+		if(!loaded) return false;
+		if(index < 0) return false;
+		if(index >= imageCount) return false;
+		if(!ensureHeader(index)) return false;
+		if(imageIndex.isEmpty(index)) return false;
+		if(lengthList[index] == 0) return false;
+		int width = imageIndex.width(index);
+		int height = imageIndex.height(index);
+		if(off < 0 || argb.length - off < width * height)
+			throw new IllegalArgumentException("argb length not match width * height !!!");
+    	try{
+    		int colorBit = imageIndex.colorBit(index);
+    		if(SDK.widthBytes(colorBit * width) * height > STREAM_THRESHOLD)
+    			return streamRows(index, width, height, colorBit, null, argb, null, off);
+    		byte[] pixels = readPixels(index, width, height, colorBit);
+    		if(pixels == null) return false;
+    		if (colorBit == 8 || colorBit == 16)
+    			PixelConverter.bmpToARGB(pixels, colorBit, width, height, argb, off);
+	    	return true;
+    	} catch(Exception ex) {
+    		ex.printStackTrace();
+    		return false;
+    	}
+    }
+
+	public final boolean decodeIndexedInto(int index, byte[] indices, int off) {
+		if(!loaded) return false;
+		if(index < 0) return false;
+		if(index >= imageCount) return false;
+		if(!ensureHeader(index)) return false;
+		if(imageIndex.isEmpty(index)) return false;
+		if(lengthList[index] == 0) return false;
+		if(imageIndex.colorBit(index) != 8) return false;
+		int width = imageIndex.width(index);
+		int height = imageIndex.height(index);
+		if(off < 0 || indices.length - off < width * height)
+			throw new IllegalArgumentException("indices length not match width * height !!!");
+    	try{
+    		if(SDK.widthBytes(8 * width) * height > STREAM_THRESHOLD)
+    			return streamRows(index, width, height, 8, null, null, indices, off);
+    		byte[] pixels = readPixels(index, width, height, 8);
+    		if(pixels == null) return false;
+    		PixelConverter.bmpToIndexed(pixels, width, height, indices, off);
+	    	return true;
+    	} catch(Exception ex) {
+    		ex.printStackTrace();
+    		return false;
+    	}
+    }
+
+	/**
+	 * 读取并解压图片的原始像素数据<br>
+	 * 返回的数组是线程独立的临时缓冲区，长度可能大于图片数据长度
+	 * 
+	 * @return 像素数据，数据长度不足时返回null
+	 */
+	private byte[] readPixels(int index, int width, int height, int colorBit) throws IOException {
+		long offset = offsetList[index];
+		int length = lengthList[index];
+		int pixelsLength = SDK.widthBytes(colorBit * width) * height;
+		DecodeBuffers buffers = DecodeBuffers.get();
+		byte[] pixels = buffers.packed(length);
+		br_wzl.readFully(offset + 16, pixels, 0, length);
+		if(imageIndex.wzlCompressed(index)) {
+			byte[] unziped = buffers.pixels(pixelsLength);
+			unzip(pixels, length, unziped, pixelsLength);
+			return unziped;
+		}
+		if(length < pixelsLength) return null;
+		return pixels;
+	}
+
+	/**
+	 * 逐行读取(必要时解压)图片像素数据，每读出一行立即转换到目标数组<br>
+	 * 每次解码只占用一行像素和一小段压缩数据的临时内存<br>
+	 * sRGB、argb和indices只有一个不为null，indices只用于8位图片
+	 * 
+	 * @return 数据长度不足时返回false
+	 */
+	private boolean streamRows(int index, int width, int height, int colorBit, byte[] sRGB, int[] argb, byte[] indices, int off) throws IOException {
+		long position = offsetList[index] + 16;
+		int length = lengthList[index];
+		int stride = SDK.widthBytes(colorBit * width);
+		boolean compressed = imageIndex.wzlCompressed(index);
+		if(!compressed && length < stride * height) return false;
+		DecodeBuffers buffers = DecodeBuffers.get();
+		byte[] row = buffers.pixels(stride);
+		byte[] chunk = compressed ? buffers.packed(Math.min(length, STREAM_CHUNK)) : null;
+		Inflater inflater = compressed ? acquireInflater() : null;
+		try {
+			for (int h = 0; h < height; ++h) {
+				if(compressed) {
+					int read = 0;
+					while (read < stride) {
+						int i = inflater.inflate(row, read, stride - read);
+						if (i == 0) {
+							if (inflater.needsDictionary())
+								throw new ZipException("zlib dictionary not supported");
+							if (inflater.finished())
+								throw new EOFException("Unexpected end of ZLIB input stream");
+							if (inflater.needsInput()) {
+								if (length == 0)
+									throw new EOFException("Unexpected end of ZLIB input stream");
+								int n = Math.min(length, chunk.length);
+								br_wzl.readFully(position, chunk, 0, n);
+								position += n;
+								length -= n;
+								inflater.setInput(chunk, 0, n);
+							}
+						}
+						read += i;
+					}
+				} else {
+					br_wzl.readFully(position, row, 0, stride);
+					position += stride;
+				}
+				convertRow(row, colorBit, width, height - 1 - h, sRGB, argb, indices, off);
+			}
+			return true;
+		} catch (DataFormatException e) {
+			throw new ZipException(e.getMessage());
+		} finally {
+			if(inflater != null) releaseInflater(inflater);
+		}
+	}
+
+	/**
+	 * 将一行BMP格式的像素数据转换到目标数组的指定行，行首为填充字节
+	 */
+	private static void convertRow(byte[] row, int colorBit, int width, int y, byte[] sRGB, int[] argb, byte[] indices, int off) {
+		int src = SDK.skipBytes(colorBit, width);
+		if (colorBit == 8) {
+			if (indices != null)
+				System.arraycopy(row, src, indices, off + y * width, width);
+			else if (sRGB != null)
+				PixelConverter.indexedToRGB(row, src, sRGB, off + y * width * 3, width);
+			else
+				PixelConverter.indexedToARGB(row, src, argb, off + y * width, width);
+		} else if (colorBit == 16) {
+			if (sRGB != null)
+				PixelConverter.rgb565ToRGB(row, src, sRGB, off + y * width * 3, width);
+			else
+				PixelConverter.rgb565ToARGB(row, src, argb, off + y * width, width);
+		}
+	}
+
 	public final ImageInfo info(int index) {
 		if(!loaded) return ImageInfo.EMPTY;
 		if(index < 0) return ImageInfo.EMPTY;
 		if(index >= imageCount) return ImageInfo.EMPTY;
-		return imageInfos[index];
+		if(!ensureHeader(index)) return ImageInfo.EMPTY;
+		ImageIndex ii = imageIndex;
+		return ii == null ? ImageInfo.EMPTY : ii.get(index);
 	}
 
 	public int count() {
@@ -1,88 +1,55 @@
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
 
-import javax.imageio.ImageIO;
-
-import core.Texture;
-import core.image.WIL;
-import core.image.WZL;
-
-import java.awt.image.*;
-import java.awt.*;
+import core.export.BatchExporter;
+import core.export.ExportPipeline;
+import core.export.PngEncoder;
 
 class Main {
+    /**
+     * 不带参数时导出prguse.wil<br>
+     * 带参数时为批量模式：java Main &lt;目录或通配符，如./res/wils或./Data/Hum*.wil&gt; [输出目录，默认./outputs]
+     */
     public static void main(String[] args) {
+        if (args.length > 0) {
+            unpakAll(args[0], args.length > 1 ? args[1] : "./outputs");
+            return;
+        }
         String name = "prguse";
-        unpakFile(name, name + ".wil");
+        unpakFile(name + ".wil");
     }
 
-    private static void unpakFile(String folder, String fileName) {
-        File file = new File("./res/wils/" + fileName);
-        //解析WIL文件
-        WIL wzl = new WIL(file.getAbsolutePath());
-        //解析WZL文件 （文件夹下同时要加上wzx索引文件）
-        // WZL wzl = new WZL(file.getAbsolutePath());
-        if (wzl.isLoaded()) {
-            System.out.println("wzl loaded");
-            System.out.println("wzl: image count: " + wzl.getImageCount());
-            /// write file to local
-            Color blackColor = new Color(0x000000);
-            File folderFile = new File("./outputs/" + folder);
-            if (!folderFile.exists()) {
-                folderFile.mkdir();
-            }
-            for (int index = 0; index < wzl.getImageCount(); index++) {
-                Texture texture = wzl.tex(index);
-                if (!texture.empty()) {
-                    String dist = "./outputs/" + folder+ "/output_" + index + ".png";
-                    BufferedImage bufferedImage = Texture.toBufferedImage(texture, true);
-                    Image image = makeColorTransparent(bufferedImage, blackColor);
-                    BufferedImage transparentBufferedImage = imageToBufferedImage(image);
-                    if (transparentBufferedImage != null) {
-                        File savefile = new File(dist);
-                        try {
-                            ImageIO.write(transparentBufferedImage, "png", savefile);
-                        } catch (IOException e) {
-                            e.printStackTrace();
-                        }
-                    }
-                }
+    private static void unpakAll(String pathOrGlob, String output) {
+        List<File> files = BatchExporter.find(pathOrGlob);
+        System.out.println("found " + files.size() + " libraries");
+        // 所有图片库共用一条流水线，多个图片库交替提交，大图片库不会独占线程
+        ExportPipeline pipeline = new ExportPipeline(new PngEncoder());
+        // 输出目录中的清单记录已导出的图片，再次运行时跳过未修改的图片库和图片
+        BatchExporter exporter = new BatchExporter(pipeline, new File(output), "output_");
+        int opened = 0;
+        try {
+            opened = exporter.export(files);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                pipeline.close();
+            } catch (IOException e) {
+                e.printStackTrace();
             }
-        } else {
-            System.out.println("wzl loaded failed");
         }
+        int unchanged = exporter.getUnchangedCount();
+        System.out.println("libraries: loaded " + opened + ", unchanged " + unchanged + ", failed "
+                + (files.size() - opened - unchanged));
+        System.out.println("images: exported " + pipeline.getExportedCount() + ", skipped "
+                + pipeline.getSkippedCount() + ", failed " + pipeline.getFailedCount() + ", already exported "
+                + exporter.getResumedCount());
     }
 
-    private static BufferedImage imageToBufferedImage(Image image) {
-
-        BufferedImage bufferedImage = new BufferedImage(image.getWidth(null), image.getHeight(null), BufferedImage.TYPE_INT_ARGB);
-        Graphics2D g2 = bufferedImage.createGraphics();
-        g2.drawImage(image, 0, 0, null);
-        g2.dispose();
-
-        return bufferedImage;
-
-    }
-
-    public static Image makeColorTransparent(BufferedImage im, final Color color) {
-        ImageFilter filter = new RGBImageFilter() {
-
-            // the color we are looking for... Alpha bits are set to opaque
-            public int markerRGB = color.getRGB() | 0xFF000000;
-
-            public final int filterRGB(int x, int y, int rgb) {
-                if ((rgb | 0xFF000000) == markerRGB) {
-                    // Mark the alpha bits as zero - transparent
-                    return 0x00FFFFFF & rgb;
-                } else {
-                    // nothing to do
-                    return rgb;
-                }
-            }
-        };
-
-        ImageProducer ip = new FilteredImageSource(im.getSource(), filter);
-        return Toolkit.getDefaultToolkit().createImage(ip);
+    private static void unpakFile(String fileName) {
+        // WIL、WZL需要同目录下的wix、wzx索引文件，输出到./outputs/图片库名称
+        unpakAll("./res/wils/" + fileName, "./outputs");
     }
 
-}
\ No newline at end of file
+}